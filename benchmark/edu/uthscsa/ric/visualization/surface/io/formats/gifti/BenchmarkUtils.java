@@ -0,0 +1,129 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+public class BenchmarkUtils {
+
+	/**
+	 * A timed operation.
+	 */
+	public interface Task {
+
+		/**
+		 * @throws Exception
+		 */
+		public void run() throws Exception;
+	}
+
+
+
+	/**
+	 * Creates a synthetic surface: a bumpy sphere sampled on a grid of rows x columns vertices, with two triangles per grid cell.
+	 *
+	 * @param rows
+	 * @param columns
+	 * @param encoding the encoding of both data arrays
+	 * @return a GIFTI object with a FLOAT32 point set and an INT32 triangle array
+	 */
+	public static GIFTI createSurface(final int rows, final int columns, final String encoding) {
+		final int numPoints = rows * columns;
+		final int numTriangles = 2 * (rows - 1) * (columns - 1);
+		final SegmentedByteBuffer points = SegmentedByteBuffer.allocateDirect(12L * numPoints);
+		final SegmentedByteBuffer triangles = SegmentedByteBuffer.allocateDirect(12L * numTriangles);
+		final Random random = new Random(1);
+
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				final double theta = (Math.PI * row) / (rows - 1);
+				final double phi = (2 * Math.PI * column) / columns;
+				final double radius = 80 + (6 * Math.sin(7 * theta) * Math.cos(5 * phi)) + (random.nextGaussian() * 0.3);
+
+				points.putFloat((float) (radius * Math.sin(theta) * Math.cos(phi)));
+				points.putFloat((float) (radius * Math.sin(theta) * Math.sin(phi) * 1.2));
+				points.putFloat((float) (radius * Math.cos(theta) * 0.9));
+			}
+		}
+
+		for (int row = 0; row < (rows - 1); row++) {
+			for (int column = 0; column < (columns - 1); column++) {
+				final int vertex = (row * columns) + column;
+				triangles.putInt(vertex);
+				triangles.putInt(vertex + 1);
+				triangles.putInt(vertex + columns);
+				triangles.putInt(vertex + 1);
+				triangles.putInt(vertex + columns + 1);
+				triangles.putInt(vertex + columns);
+			}
+		}
+
+		points.rewind();
+		triangles.rewind();
+
+		final Map<String, String> atts = new LinkedHashMap<String, String>();
+		atts.put(GIFTI.ATT_VERSION, GIFTI.DEFAULT_VERSION);
+		atts.put(GIFTI.ATT_NUMBEROFDATAARRAYS, "2");
+
+		final GIFTI gifti = new GIFTI(atts);
+		gifti.addDataArray(new DataArray(createAttributes(DataArray.NIFTI_INTENT_POINTSET, DataArray.TYPE_NIFTI_TYPE_FLOAT32, numPoints,
+				encoding), points));
+		gifti.addDataArray(new DataArray(createAttributes(DataArray.NIFTI_INTENT_TRIANGLE, DataArray.TYPE_NIFTI_TYPE_INT32, numTriangles,
+				encoding), triangles));
+		return gifti;
+	}
+
+
+
+	/**
+	 * Runs a task several times.
+	 *
+	 * @param numRuns
+	 * @param task
+	 * @return the shortest run time in milliseconds
+	 * @throws Exception
+	 */
+	public static double timeBest(final int numRuns, final Task task) throws Exception {
+		long best = Long.MAX_VALUE;
+
+		for (int ctr = 0; ctr < numRuns; ctr++) {
+			final long start = System.nanoTime();
+			task.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return best / 1e6;
+	}
+
+
+
+	/**
+	 * @param prefix
+	 * @return a temporary file that is deleted on exit
+	 * @throws IOException
+	 */
+	public static File createTempFile(final String prefix) throws IOException {
+		final File file = File.createTempFile(prefix, ".gii");
+		file.deleteOnExit();
+		return file;
+	}
+
+
+
+	private static Map<String, String> createAttributes(final String intent, final String dataType, final int numRows, final String encoding) {
+		final Map<String, String> atts = new LinkedHashMap<String, String>();
+		atts.put(DataArray.ATT_INTENT, intent);
+		atts.put(DataArray.ATT_ARRAYINDEXINGORDER, DataArray.DIM_ORDER_ROWMAJORORDER);
+		atts.put(DataArray.ATT_DATATYPE, dataType);
+		atts.put(DataArray.ATT_DIMENSIONALITY, "2");
+		atts.put(DataArray.ATT_DIMN + "0", String.valueOf(numRows));
+		atts.put(DataArray.ATT_DIMN + "1", "3");
+		atts.put(DataArray.ATT_ENCODING, encoding);
+		atts.put(DataArray.ATT_ENDIAN, DataArray.DATA_ORDER_LITTLEENDIAN);
+		return atts;
+	}
+}
@@ -0,0 +1,70 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+import java.util.zip.Deflater;
+
+
+public class CompressionBenchmark {
+
+	private static final int NUM_RUNS = 3;
+	private static final int[] LEVELS = { 1, 3, 6, 9 };
+	private static final int[] STRATEGIES = { Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY };
+	private static final String[] STRATEGY_NAMES = { "default", "filtered", "huffman only" };
+	private static final int[] BUFFER_SIZES = { 8192, 65536 };
+
+
+
+	/**
+	 * Reports the output size and the best write time of 3 runs for each compression level, strategy and buffer size, writing on one
+	 * thread. With no arguments, a synthetic 160k-vertex surface is written.
+	 *
+	 * @param args a .gii file whose data arrays are written instead, if any
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final GIFTI gifti;
+		if (args.length > 0) {
+			gifti = new GiftiReader(new File(args[0])).parseGiftiXML();
+			for (final DataArray dataArray : gifti.getDataArrays()) {
+				dataArray.getAttributes().put(DataArray.ATT_ENCODING, DataArray.ENCODING_GZIPBASE64BINARY);
+			}
+		} else {
+			gifti = BenchmarkUtils.createSurface(400, 400, DataArray.ENCODING_GZIPBASE64BINARY);
+		}
+
+		long numBytes = 0;
+		for (final DataArray dataArray : gifti.getDataArrays()) {
+			numBytes += dataArray.getNumBytes();
+		}
+
+		System.out.println(String.format("raw data %.2f MB", numBytes / 1e6));
+
+		final File file = BenchmarkUtils.createTempFile("compression");
+		for (final int bufferSize : BUFFER_SIZES) {
+			for (final int level : LEVELS) {
+				for (int ctr = 0; ctr < STRATEGIES.length; ctr++) {
+					final double time = BenchmarkUtils.timeBest(NUM_RUNS, newWrite(gifti, file, level, STRATEGIES[ctr], bufferSize));
+					System.out.println(String.format("buffer %6d  level %d  %-12s %8.2f MB %8.1f ms", bufferSize, level, STRATEGY_NAMES[ctr],
+							file.length() / 1e6, time));
+				}
+			}
+		}
+	}
+
+
+
+	private static BenchmarkUtils.Task newWrite(final GIFTI gifti, final File file, final int level, final int strategy, final int bufferSize) {
+		return new BenchmarkUtils.Task() {
+
+			@Override
+			public void run() throws Exception {
+				final GiftiWriter writer = new GiftiWriter(gifti, file);
+				writer.setCompressionLevel(level);
+				writer.setCompressionStrategy(strategy);
+				writer.setBufferSize(bufferSize);
+				writer.writeGiftiXML();
+			}
+		};
+	}
+}
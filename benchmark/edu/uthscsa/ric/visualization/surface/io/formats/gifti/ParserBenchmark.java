@@ -0,0 +1,61 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+
+
+public class ParserBenchmark {
+
+	private static final int NUM_RUNS = 5;
+
+
+
+	/**
+	 * Compares the read times of the SAX parser and GiftiByteParser, best of 5 runs. With no arguments, a synthetic 1M-vertex surface
+	 * is written in each encoding, with and without line breaks.
+	 *
+	 * @param args the .gii files to read instead, if any
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length > 0) {
+			for (final String path : args) {
+				benchmark(new File(path), path);
+			}
+
+			return;
+		}
+
+		final String[] encodings = { DataArray.ENCODING_BASE64BINARY, DataArray.ENCODING_GZIPBASE64BINARY, DataArray.ENCODING_ASCII };
+		final File file = BenchmarkUtils.createTempFile("parser");
+
+		for (final String encoding : encodings) {
+			for (final boolean lineBreaks : new boolean[] { false, true }) {
+				new GiftiWriter(BenchmarkUtils.createSurface(1000, 1000, encoding), file, lineBreaks).writeGiftiXML();
+				benchmark(file, encoding + (lineBreaks ? ", wrapped" : ""));
+			}
+		}
+	}
+
+
+
+	private static void benchmark(final File file, final String name) throws Exception {
+		final double sax = BenchmarkUtils.timeBest(NUM_RUNS, newRead(file, false));
+		final double bytes = BenchmarkUtils.timeBest(NUM_RUNS, newRead(file, true));
+		System.out.println(String.format("%-30s SAX %8.1f ms   byte parser %8.1f ms", name, sax, bytes));
+	}
+
+
+
+	private static BenchmarkUtils.Task newRead(final File file, final boolean useByteParser) {
+		return new BenchmarkUtils.Task() {
+
+			@Override
+			public void run() throws Exception {
+				final GiftiReader reader = new GiftiReader(file);
+				reader.setUseByteParser(useByteParser);
+				reader.parseGiftiXML();
+			}
+		};
+	}
+}
@@ -4,9 +4,14 @@ package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
@@ -15,6 +20,11 @@ public class DataArray implements MetadataHolder {
 
 	private final Map<String, String> attributes;
 	private Buffer buffer;
+	private SegmentedByteBuffer segmentedBuffer;
+	private GiftiPayload payload;
+	private Map<String, String> payloadAttributes;
+	private boolean isTransposingOnLoad;
+	private boolean isDirty;
 	private final Map<String, String> metadata;
 	private final Vector<GiftiTransform> transforms;
 
@@ -52,8 +62,18 @@ public class DataArray implements MetadataHolder {
 	public static final String NIFTI_INTENT_TRIANGLE = "NIFTI_INTENT_TRIANGLE";
 	public static final String NIFTI_INTENT_VECTOR = "NIFTI_INTENT_VECTOR";
 	public static final String TYPE_NIFTI_TYPE_FLOAT32 = "NIFTI_TYPE_FLOAT32";
+	public static final String TYPE_NIFTI_TYPE_FLOAT64 = "NIFTI_TYPE_FLOAT64";
+	public static final String TYPE_NIFTI_TYPE_INT8 = "NIFTI_TYPE_INT8";
+	public static final String TYPE_NIFTI_TYPE_INT16 = "NIFTI_TYPE_INT16";
 	public static final String TYPE_NIFTI_TYPE_INT32 = "NIFTI_TYPE_INT32";
+	public static final String TYPE_NIFTI_TYPE_INT64 = "NIFTI_TYPE_INT64";
 	public static final String TYPE_NIFTI_TYPE_UINT8 = "NIFTI_TYPE_UINT8";
+	public static final String TYPE_NIFTI_TYPE_UINT16 = "NIFTI_TYPE_UINT16";
+	public static final String TYPE_NIFTI_TYPE_UINT32 = "NIFTI_TYPE_UINT32";
+	public static final String TYPE_NIFTI_TYPE_UINT64 = "NIFTI_TYPE_UINT64";
+
+	private static final List<String> ENCODING_ATTRIBUTES = Arrays.asList(ATT_ENCODING, ATT_DATATYPE, ATT_ENDIAN, ATT_DIMENSIONALITY,
+			ATT_ARRAYINDEXINGORDER);
 
 
 
@@ -66,9 +86,7 @@ public class DataArray implements MetadataHolder {
 		transforms = new Vector<GiftiTransform>();
 
 		if (!headerOnly) {
-			final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(getDimensionality() * getBytesPerUnit());
-			byteBuffer.order(ByteOrder.nativeOrder());
-			buffer = byteBuffer;
+			setSegmentedBuffer(allocateBuffer());
 		}
 	}
 
@@ -87,6 +105,21 @@ public class DataArray implements MetadataHolder {
 
 
 
+	/**
+	 * Constructor for data that may be larger than a single buffer can hold.
+	 *
+	 * @param attributes
+	 * @param buffer
+	 */
+	public DataArray(final Map<String, String> attributes, final SegmentedByteBuffer buffer) {
+		this.attributes = attributes;
+		metadata = new HashMap<String, String>();
+		transforms = new Vector<GiftiTransform>();
+		setSegmentedBuffer(buffer);
+	}
+
+
+
 	/* (non-Javadoc)
 	 * @see edu.uthscsa.ric.visualization.surface.io.formats.gifti.MetadataHolder#addMetadata(java.util.Map)
 	 */
@@ -111,13 +144,14 @@ public class DataArray implements MetadataHolder {
 	 * @return
 	 */
 	public FloatBuffer getAsFloatBuffer() {
-		if (buffer != null) {
-			buffer.rewind();
-
-			if (buffer instanceof FloatBuffer) {
-				return (FloatBuffer) buffer;
-			} else if (buffer instanceof ByteBuffer) {
-				return ((ByteBuffer) buffer).asFloatBuffer();
+		final Buffer currentBuffer = getBuffer();
+		if (currentBuffer != null) {
+			currentBuffer.rewind();
+
+			if (currentBuffer instanceof FloatBuffer) {
+				return (FloatBuffer) currentBuffer;
+			} else if (currentBuffer instanceof ByteBuffer) {
+				return ((ByteBuffer) currentBuffer).asFloatBuffer();
 			}
 		}
 
@@ -131,12 +165,75 @@ public class DataArray implements MetadataHolder {
 	 * @return
 	 */
 	public IntBuffer getAsIntBuffer() {
-		if (buffer != null) {
-			buffer.rewind();
-			if (buffer instanceof IntBuffer) {
-				return (IntBuffer) buffer;
-			} else if (buffer instanceof ByteBuffer) {
-				return ((ByteBuffer) buffer).asIntBuffer();
+		final Buffer currentBuffer = getBuffer();
+		if (currentBuffer != null) {
+			currentBuffer.rewind();
+			if (currentBuffer instanceof IntBuffer) {
+				return (IntBuffer) currentBuffer;
+			} else if (currentBuffer instanceof ByteBuffer) {
+				return ((ByteBuffer) currentBuffer).asIntBuffer();
+			}
+		}
+
+		return null;
+	}
+
+
+
+	/**
+	 * Returns the data of a 16-bit data array (INT16 or UINT16). Unsigned values are read by masking with 0xFFFF.
+	 *
+	 * @return
+	 */
+	public ShortBuffer getAsShortBuffer() {
+		final Buffer currentBuffer = getBuffer();
+		if (currentBuffer != null) {
+			currentBuffer.rewind();
+			if (currentBuffer instanceof ShortBuffer) {
+				return (ShortBuffer) currentBuffer;
+			} else if (currentBuffer instanceof ByteBuffer) {
+				return ((ByteBuffer) currentBuffer).asShortBuffer();
+			}
+		}
+
+		return null;
+	}
+
+
+
+	/**
+	 * Returns the data of a 64-bit integer data array (INT64 or UINT64).
+	 *
+	 * @return
+	 */
+	public LongBuffer getAsLongBuffer() {
+		final Buffer currentBuffer = getBuffer();
+		if (currentBuffer != null) {
+			currentBuffer.rewind();
+			if (currentBuffer instanceof LongBuffer) {
+				return (LongBuffer) currentBuffer;
+			} else if (currentBuffer instanceof ByteBuffer) {
+				return ((ByteBuffer) currentBuffer).asLongBuffer();
+			}
+		}
+
+		return null;
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public DoubleBuffer getAsDoubleBuffer() {
+		final Buffer currentBuffer = getBuffer();
+		if (currentBuffer != null) {
+			currentBuffer.rewind();
+
+			if (currentBuffer instanceof DoubleBuffer) {
+				return (DoubleBuffer) currentBuffer;
+			} else if (currentBuffer instanceof ByteBuffer) {
+				return ((ByteBuffer) currentBuffer).asDoubleBuffer();
 			}
 		}
 
@@ -149,11 +246,12 @@ public class DataArray implements MetadataHolder {
 	 * @return
 	 */
 	public ByteBuffer getAsByteBuffer() {
-		if (buffer != null) {
-			buffer.rewind();
+		final Buffer currentBuffer = getBuffer();
+		if (currentBuffer != null) {
+			currentBuffer.rewind();
 
-			if (buffer instanceof ByteBuffer) {
-				return (ByteBuffer) buffer;
+			if (currentBuffer instanceof ByteBuffer) {
+				return (ByteBuffer) currentBuffer;
 			}
 		}
 
@@ -172,25 +270,289 @@ public class DataArray implements MetadataHolder {
 
 
 	/**
+	 * Returns the data. The buffer is writable, so the data array is marked dirty and is encoded again when written.
+	 *
 	 * @return
+	 * @throws IllegalStateException if the data array is too large for a single buffer (see getSegmentedBuffer())
 	 */
-	public Buffer getBuffer() {
+	public synchronized Buffer getBuffer() {
+		final Buffer currentBuffer = getInternalBuffer();
+		isDirty = true;
+		return currentBuffer;
+	}
+
+
+
+	/**
+	 * Returns the data without marking the data array dirty, for code that does not change the values.
+	 *
+	 * @return
+	 */
+	synchronized Buffer getInternalBuffer() {
+		loadOnAccess();
+
+		if ((buffer == null) && (segmentedBuffer != null)) {
+			throw new IllegalStateException("Data array is too large for a single buffer, use getSegmentedBuffer()!");
+		}
+
 		return buffer;
 	}
 
 
 
+	/**
+	 * Returns the data as a buffer with long positions, which works for data arrays of any size. Data arrays larger than
+	 * Integer.MAX_VALUE bytes are only available this way. The buffer is writable, so the data array is marked dirty and is encoded
+	 * again when written.
+	 *
+	 * @return the buffer, or null if there is no data or the data is held in a FloatBuffer or IntBuffer
+	 */
+	public synchronized SegmentedByteBuffer getSegmentedBuffer() {
+		final SegmentedByteBuffer currentBuffer = getInternalSegmentedBuffer();
+		isDirty = true;
+		return currentBuffer;
+	}
+
+
+
+	/**
+	 * Returns the data as a buffer with long positions without marking the data array dirty, for code that does not change the
+	 * values, or fills them from the encoded data.
+	 *
+	 * @return
+	 */
+	synchronized SegmentedByteBuffer getInternalSegmentedBuffer() {
+		loadOnAccess();
+
+		if ((segmentedBuffer == null) && (buffer instanceof ByteBuffer)) {
+			segmentedBuffer = SegmentedByteBuffer.wrap((ByteBuffer) buffer);
+		}
+
+		if (segmentedBuffer != null) {
+			segmentedBuffer.rewind();
+		}
+
+		return segmentedBuffer;
+	}
+
+
+
+	private void loadOnAccess() {
+		if (!isLoaded() && (payload != null)) {
+			try {
+				load();
+			} catch (final GiftiFormatException ex) {
+				throw new IllegalStateException("Could not load data array!", ex);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Decodes the data from the file, if this data array was read lazily and has not been loaded yet.
+	 *
+	 * @throws GiftiFormatException
+	 */
+	public synchronized void load() throws GiftiFormatException {
+		if (!isLoaded() && (payload != null)) {
+			// the payload is decoded as it was described when read, even if the encoding has been changed since
+			final DataArray encoded = new DataArray(payloadAttributes, true);
+			final SegmentedByteBuffer byteBuffer = encoded.allocateBuffer();
+			payload.decode(encoded, byteBuffer);
+			byteBuffer.rewind();
+			setSegmentedBuffer(isTransposingOnLoad ? transposeToRowMajorOrder(byteBuffer) : byteBuffer);
+		}
+	}
+
+
+
+	/**
+	 * Converts the data of a 2-D array from column-major order (the first index varies fastest) to row-major order, and updates the
+	 * ArrayIndexingOrder attribute to match. The values are transposed in cache-sized tiles, in parallel for large arrays; square arrays
+	 * are transposed in place. A lazily read data array that has not been loaded yet is converted whenever it is loaded.
+	 *
+	 * @throws GiftiFormatException if the data array has more than 2 dimensions, or its data type is unknown or not held as bytes
+	 */
+	public synchronized void toRowMajorOrder() throws GiftiFormatException {
+		if (isRowMajorOrder()) {
+			return;
+		}
+
+		if (getDimensions() > 2) {
+			throw new GiftiFormatException("Only 1-D and 2-D data arrays can be converted to row-major order!");
+		}
+
+		if (getDimensions() == 2) {
+			if (getBytesPerUnit() == 0) {
+				throw new GiftiFormatException("Data type " + attributes.get(ATT_DATATYPE) + " can't be converted to row-major order!");
+			}
+
+			if (isLoaded()) {
+				final SegmentedByteBuffer byteBuffer = getInternalSegmentedBuffer();
+				if (byteBuffer == null) {
+					throw new GiftiFormatException("Data array must hold its data in a ByteBuffer to be converted to row-major order!");
+				}
+
+				setSegmentedBuffer(transposeToRowMajorOrder(byteBuffer));
+			}
+
+			isTransposingOnLoad = (payload != null);
+			isDirty = true;
+		}
+
+		attributes.put(ATT_ARRAYINDEXINGORDER, DIM_ORDER_ROWMAJORORDER);
+	}
+
+
+
+	private SegmentedByteBuffer transposeToRowMajorOrder(final SegmentedByteBuffer byteBuffer) {
+		// column-major data is laid out as one row per column
+		final SegmentedByteBuffer transposed = GiftiTransposer.transpose(byteBuffer, getNumElements(1), getNumElements(0), getBytesPerUnit());
+		transposed.rewind();
+		return transposed;
+	}
+
+
+
+	/**
+	 * Releases the data of a lazily read data array. It will be decoded from the file again on next access.
+	 */
+	public synchronized void unload() {
+		if (payload != null) {
+			buffer = null;
+			segmentedBuffer = null;
+		}
+	}
+
+
+
+	/**
+	 * @return true if the data is in memory
+	 */
+	public synchronized boolean isLoaded() {
+		return (buffer != null) || (segmentedBuffer != null);
+	}
+
+
+
+	/**
+	 * @return the location of the encoded data in the file, or null if not read lazily or with GiftiReader.setKeepPayloads(true)
+	 */
+	public GiftiPayload getPayload() {
+		return payload;
+	}
+
+
+
+	/**
+	 * Returns whether the data may have changed since it was read. GiftiWriter copies the encoded data of a data array that is not
+	 * dirty straight from the file it was read from, as long as its encoding, data type, endianness and dimensions are unchanged. A
+	 * data array becomes dirty as soon as its buffer is handed out by getBuffer(), getSegmentedBuffer() or any getAs...Buffer() method.
+	 *
+	 * @return true if the data may differ from the encoded data in the file
+	 */
+	public synchronized boolean isDirty() {
+		return isDirty;
+	}
+
+
+
+	/**
+	 * Marks the data as changed, so that GiftiWriter encodes the data again instead of copying the encoded data from the file. Handing
+	 * out a buffer already does this; call it when values are changed through a buffer that was obtained before the data was read.
+	 */
+	public synchronized void setDirty() {
+		isDirty = true;
+	}
+
+
+
+	/**
+	 * @return true if the encoded data in the file can be written as is
+	 */
+	synchronized boolean isPayloadCurrent() {
+		if ((payload == null) || isDirty || isExternalFileBinary()) {
+			return false;
+		}
+
+		for (final String name : ENCODING_ATTRIBUTES) {
+			if (!isUnchanged(name)) {
+				return false;
+			}
+		}
+
+		for (int ctr = 0; ctr < getDimensions(); ctr++) {
+			if (!isUnchanged(ATT_DIMN + ctr)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+
+	/**
+	 * Sets the location of the encoded data in the file, which holds the current data as described by the current attributes.
+	 *
+	 * @param payload
+	 */
+	synchronized void setPayload(final GiftiPayload payload) {
+		this.payload = payload;
+		payloadAttributes = new HashMap<String, String>(attributes);
+		isTransposingOnLoad = false;
+		isDirty = false;
+	}
+
+
+
+	private boolean isUnchanged(final String name) {
+		final String value = attributes.get(name);
+		return (value == null) ? (payloadAttributes.get(name) == null) : value.equals(payloadAttributes.get(name));
+	}
+
+
+
+	private SegmentedByteBuffer allocateBuffer() {
+		return SegmentedByteBuffer.allocateDirect(getNumBytes());
+	}
+
+
+
+	/**
+	 * @param buffer
+	 */
+	void setBuffer(final Buffer buffer) {
+		this.buffer = buffer;
+		segmentedBuffer = null;
+	}
+
+
+
+	/**
+	 * @param segmentedBuffer
+	 */
+	void setSegmentedBuffer(final SegmentedByteBuffer segmentedBuffer) {
+		this.segmentedBuffer = segmentedBuffer;
+		buffer = ((segmentedBuffer != null) && (segmentedBuffer.getNumSegments() == 1)) ? segmentedBuffer.getSegment(0) : null;
+	}
+
+
+
 	/**
 	 *
 	 * @return
 	 */
 	public final int getBytesPerUnit() {
-		if (isFloat32()) {
-			return 4;
-		} else if (isInt32()) {
+		if (isFloat32() || isInt32() || isUnsignedInt32()) {
 			return 4;
-		} else if (isUnsignedInt8()) {
+		} else if (isUnsignedInt8() || isInt8()) {
 			return 1;
+		} else if (isInt16() || isUnsignedInt16()) {
+			return 2;
+		} else if (isFloat64() || isInt64() || isUnsignedInt64()) {
+			return 8;
 		}
 
 		return 0;
@@ -213,6 +575,29 @@ public class DataArray implements MetadataHolder {
 
 
 
+	/**
+	 * @return the total number of elements, which may exceed Integer.MAX_VALUE
+	 */
+	public final long getLongDimensionality() {
+		long total = 1;
+		for (int ctr = 0; ctr < getDimensions(); ctr++) {
+			total *= getNumElements(ctr);
+		}
+
+		return total;
+	}
+
+
+
+	/**
+	 * @return the size of the data in bytes
+	 */
+	public final long getNumBytes() {
+		return getLongDimensionality() * getBytesPerUnit();
+	}
+
+
+
 	/**
 	 * @return
 	 */
@@ -237,17 +622,41 @@ public class DataArray implements MetadataHolder {
 
 	/**
 	 * @return
+	 * @throws IllegalStateException if the offset does not fit in an int, see getExternalFileOffsetLong()
 	 */
 	public int getExternalFileOffset() {
-		int num = 0;
+		final long num = getExternalFileOffsetLong();
+		if (num > Integer.MAX_VALUE) {
+			throw new IllegalStateException("ExternalFileOffset " + num + " does not fit in an int!");
+		}
+
+		return (int) num;
+	}
+
+
+
+	/**
+	 * @return the offset of the data in the external file, which may exceed Integer.MAX_VALUE
+	 */
+	public long getExternalFileOffsetLong() {
+		long num = 0;
 		try {
-			num = Integer.parseInt(attributes.get(ATT_EXTERNALFILEOFFSET));
+			num = Long.parseLong(attributes.get(ATT_EXTERNALFILEOFFSET));
 		} catch (final NumberFormatException ex) {}
 		return num;
 	}
 
 
 
+	/**
+	 * @return the byte order of the encoded data
+	 */
+	public ByteOrder getByteOrder() {
+		return isLittleEndian() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+
+
+
 	/**
 	 * @return
 	 */
@@ -362,6 +771,24 @@ public class DataArray implements MetadataHolder {
 
 
 
+	/**
+	 * @return
+	 */
+	public final boolean isFloat64() {
+		return TYPE_NIFTI_TYPE_FLOAT64.equals(attributes.get(ATT_DATATYPE));
+	}
+
+
+
+	/**
+	 * @return true if the data type is FLOAT32 or FLOAT64
+	 */
+	public final boolean isFloatingPoint() {
+		return isFloat32() || isFloat64();
+	}
+
+
+
 	/**
 	 * @return
 	 */
@@ -380,6 +807,33 @@ public class DataArray implements MetadataHolder {
 
 
 
+	/**
+	 * @return
+	 */
+	public final boolean isInt8() {
+		return TYPE_NIFTI_TYPE_INT8.equals(attributes.get(ATT_DATATYPE));
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public final boolean isInt16() {
+		return TYPE_NIFTI_TYPE_INT16.equals(attributes.get(ATT_DATATYPE));
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public final boolean isInt64() {
+		return TYPE_NIFTI_TYPE_INT64.equals(attributes.get(ATT_DATATYPE));
+	}
+
+
+
 	/**
 	 * @return
 	 */
@@ -485,4 +939,31 @@ public class DataArray implements MetadataHolder {
 	public final boolean isUnsignedInt8() {
 		return TYPE_NIFTI_TYPE_UINT8.equals(attributes.get(ATT_DATATYPE));
 	}
+
+
+
+	/**
+	 * @return
+	 */
+	public final boolean isUnsignedInt16() {
+		return TYPE_NIFTI_TYPE_UINT16.equals(attributes.get(ATT_DATATYPE));
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public final boolean isUnsignedInt32() {
+		return TYPE_NIFTI_TYPE_UINT32.equals(attributes.get(ATT_DATATYPE));
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public final boolean isUnsignedInt64() {
+		return TYPE_NIFTI_TYPE_UINT64.equals(attributes.get(ATT_DATATYPE));
+	}
 }
@@ -0,0 +1,14 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.util.Map;
+
+
+public interface DataArrayFilter {
+
+	/**
+	 * @param index the index of the data array in the file
+	 * @param attributes the attributes of the data array
+	 * @return true to load the data of the data array, false to read its header only
+	 */
+	public boolean accept(int index, Map<String, String> attributes);
+}
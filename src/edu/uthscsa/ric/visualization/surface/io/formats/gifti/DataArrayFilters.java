@@ -0,0 +1,61 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+public class DataArrayFilters {
+
+	/**
+	 * @param intents
+	 * @return a filter that accepts data arrays with any of the specified intents
+	 */
+	public static DataArrayFilter intents(final String... intents) {
+		final Set<String> intentSet = new HashSet<String>(Arrays.asList(intents));
+
+		return new DataArrayFilter() {
+
+			@Override
+			public boolean accept(final int index, final Map<String, String> attributes) {
+				return intentSet.contains(attributes.get(DataArray.ATT_INTENT));
+			}
+		};
+	}
+
+
+
+	/**
+	 * @param indices
+	 * @return a filter that accepts data arrays at any of the specified indices
+	 */
+	public static DataArrayFilter indices(final Set<Integer> indices) {
+		final Set<Integer> indexSet = new HashSet<Integer>(indices);
+
+		return new DataArrayFilter() {
+
+			@Override
+			public boolean accept(final int index, final Map<String, String> attributes) {
+				return indexSet.contains(index);
+			}
+		};
+	}
+
+
+
+	/**
+	 * @param from the first index, inclusive
+	 * @param to the last index, exclusive
+	 * @return a filter that accepts data arrays in the specified index range
+	 */
+	public static DataArrayFilter range(final int from, final int to) {
+		return new DataArrayFilter() {
+
+			@Override
+			public boolean accept(final int index, final Map<String, String> attributes) {
+				return (index >= from) && (index < to);
+			}
+		};
+	}
+}
@@ -0,0 +1,321 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.math.BigInteger;
+import java.util.zip.DataFormatException;
+
+
+public class GiftiAsciiDecoder {
+
+	private DataArray dataArray;
+	private SegmentedByteBuffer currentBuffer;
+	private boolean isFloat;
+	private int bytesPerUnit;
+	private boolean isUnsigned;
+	private double minValue;
+	private double maxValue;
+	private final char[] token = new char[MAX_TOKEN_LENGTH];
+	private int tokenLength;
+
+	private static final int MAX_TOKEN_LENGTH = 64;
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final int MAX_FAST_EXPONENT = 22;
+	private static final double[] POWERS_OF_TEN = new double[MAX_FAST_EXPONENT + 1];
+	private static final double TWO_TO_THE_63 = Math.pow(2, 63);
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+
+		for (int ctr = 1; ctr < POWERS_OF_TEN.length; ctr++) {
+			POWERS_OF_TEN[ctr] = POWERS_OF_TEN[ctr - 1] * 10;
+		}
+	}
+
+
+
+	/**
+	 * Prepares to decode whitespace-separated values into the specified buffer, from its position, in the data type of the data array.
+	 *
+	 * @param dataArray
+	 * @param byteBuffer
+	 */
+	public void start(final DataArray dataArray, final SegmentedByteBuffer byteBuffer) {
+		this.dataArray = dataArray;
+		currentBuffer = byteBuffer;
+		isFloat = dataArray.isFloatingPoint();
+		bytesPerUnit = dataArray.getBytesPerUnit();
+		isUnsigned = dataArray.isUnsignedInt8() || dataArray.isUnsignedInt16() || dataArray.isUnsignedInt32() || dataArray.isUnsignedInt64();
+		tokenLength = 0;
+
+		// powers of two are exact doubles, and the upper bound is exclusive
+		final int numBits = 8 * bytesPerUnit;
+		minValue = isUnsigned ? 0 : -Math.pow(2, numBits - 1);
+		maxValue = Math.pow(2, isUnsigned ? numBits : (numBits - 1));
+	}
+
+
+
+	/**
+	 * Decodes the values in the character range. A value split across calls is carried over.
+	 *
+	 * @param ch
+	 * @param start
+	 * @param length
+	 * @throws DataFormatException
+	 */
+	public void decode(final char[] ch, final int start, final int length) throws DataFormatException {
+		final int end = start + length;
+
+		for (int ctr = start; ctr < end; ctr++) {
+			accept(ch[ctr]);
+		}
+	}
+
+
+
+	/**
+	 * Decodes the values in the ASCII byte range. A value split across calls is carried over.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @throws DataFormatException
+	 */
+	public void decode(final byte[] bytes, final int offset, final int length) throws DataFormatException {
+		final int end = offset + length;
+
+		for (int ctr = offset; ctr < end; ctr++) {
+			accept((char) (bytes[ctr] & 0xFF));
+		}
+	}
+
+
+
+	/**
+	 * Decodes the last value, if the data does not end with whitespace.
+	 *
+	 * @throws DataFormatException
+	 */
+	public void finish() throws DataFormatException {
+		if (tokenLength > 0) {
+			putToken();
+		}
+
+		dataArray = null;
+		currentBuffer = null;
+	}
+
+
+
+	private void accept(final char ch) throws DataFormatException {
+		if ((ch == ' ') || (ch == '\n') || (ch == '\t') || (ch == '\r')) {
+			if (tokenLength > 0) {
+				putToken();
+			}
+		} else if (tokenLength < MAX_TOKEN_LENGTH) {
+			token[tokenLength++] = ch;
+		} else {
+			throw new DataFormatException("Malformed ASCII value: " + new String(token, 0, tokenLength) + "...");
+		}
+	}
+
+
+
+	private void putToken() throws DataFormatException {
+		try {
+			if (isFloat && (bytesPerUnit == 4)) {
+				currentBuffer.putFloat((float) parseNumber(true));
+			} else if (isFloat) {
+				currentBuffer.putDouble(parseNumber(false));
+			} else if (bytesPerUnit == 0) {
+				throw new DataFormatException("Unsupported data type: " + dataArray.getAttributes().get(DataArray.ATT_DATATYPE));
+			} else {
+				final long value = parseInteger();
+
+				if (bytesPerUnit == 1) {
+					currentBuffer.put((byte) value);
+				} else if (bytesPerUnit == 2) {
+					currentBuffer.putShort((short) value);
+				} else if (bytesPerUnit == 4) {
+					currentBuffer.putInt((int) value);
+				} else {
+					currentBuffer.putLong(value);
+				}
+			}
+		} catch (final NumberFormatException ex) {
+			throw new DataFormatException("Malformed ASCII value: " + new String(token, 0, tokenLength));
+		}
+
+		tokenLength = 0;
+	}
+
+
+
+	private long parseInteger() throws DataFormatException {
+		int pos = 0;
+		final boolean negative = (token[0] == '-');
+		if (negative || (token[0] == '+')) {
+			pos++;
+		}
+
+		if (pos == tokenLength) {
+			return toInteger(parseNumber(false));
+		} else if ((tokenLength - pos) > 18) {
+			return parseLongSlow();
+		}
+
+		long value = 0;
+		for (; pos < tokenLength; pos++) {
+			final int digit = token[pos] - '0';
+
+			if ((digit < 0) || (digit > 9)) {
+				return toInteger(parseNumber(false)); // e.g., 3.0 or 1e3
+			}
+
+			value = (value * 10) + digit;
+		}
+
+		if (negative) {
+			value = -value;
+		}
+
+		// at most 18 digits, so the value is well within a long
+		if ((value < minValue) || (value >= maxValue)) {
+			throw newOutOfRangeException();
+		}
+
+		return value;
+	}
+
+
+
+	// keeps all 64 bits of INT64 and UINT64 values, which a double can't hold
+	private long parseLongSlow() throws DataFormatException {
+		final BigInteger value;
+
+		try {
+			value = new BigInteger(new String(token, 0, tokenLength));
+		} catch (final NumberFormatException ex) {
+			return toInteger(parseNumber(false));
+		}
+
+		final int numBits = 8 * bytesPerUnit;
+		if (isUnsigned ? ((value.signum() < 0) || (value.bitLength() > numBits)) : (value.bitLength() > (numBits - 1))) {
+			throw newOutOfRangeException();
+		}
+
+		return value.longValue();
+	}
+
+
+
+	private long toInteger(final double value) throws DataFormatException {
+		if (!(value >= minValue) || !(value < maxValue)) {
+			throw newOutOfRangeException(); // including NaN
+		}
+
+		// UINT64 values of 2^63 and above are stored in the sign bit
+		if (value >= TWO_TO_THE_63) {
+			return (long) (value - TWO_TO_THE_63) + Long.MIN_VALUE;
+		}
+
+		return (long) value;
+	}
+
+
+
+	private DataFormatException newOutOfRangeException() {
+		return new DataFormatException("ASCII value out of range for " + dataArray.getAttributes().get(DataArray.ATT_DATATYPE) + ": "
+				+ new String(token, 0, tokenLength));
+	}
+
+
+
+	// Clinger's fast path: a mantissa of at most 15 digits and a power of ten of at most 22 are both exact doubles, so a single
+	// multiplication or division is correctly rounded. Everything else goes through the JDK parser.
+	private double parseNumber(final boolean isSinglePrecision) {
+		int pos = 0;
+		final boolean negative = (token[0] == '-');
+		if (negative || (token[0] == '+')) {
+			pos++;
+		}
+
+		long mantissa = 0;
+		int numDigits = 0;
+		int exponent = 0;
+		boolean hasDigits = false;
+
+		for (; (pos < tokenLength) && (token[pos] >= '0') && (token[pos] <= '9'); pos++) {
+			hasDigits = true;
+
+			if ((mantissa != 0) || (token[pos] != '0')) {
+				mantissa = (mantissa * 10) + (token[pos] - '0');
+				numDigits++;
+			}
+		}
+
+		if ((pos < tokenLength) && (token[pos] == '.')) {
+			for (pos++; (pos < tokenLength) && (token[pos] >= '0') && (token[pos] <= '9'); pos++) {
+				hasDigits = true;
+				exponent--;
+
+				if ((mantissa != 0) || (token[pos] != '0')) {
+					mantissa = (mantissa * 10) + (token[pos] - '0');
+					numDigits++;
+				}
+			}
+		}
+
+		if (hasDigits && (pos < tokenLength) && ((token[pos] == 'e') || (token[pos] == 'E'))) {
+			pos++;
+
+			final boolean negativeExponent = (pos < tokenLength) && (token[pos] == '-');
+			if (negativeExponent || ((pos < tokenLength) && (token[pos] == '+'))) {
+				pos++;
+			}
+
+			int exponentValue = 0;
+			final int exponentStart = pos;
+			for (; (pos < tokenLength) && (token[pos] >= '0') && (token[pos] <= '9') && (exponentValue < 1000); pos++) {
+				exponentValue = (exponentValue * 10) + (token[pos] - '0');
+			}
+
+			if (pos == exponentStart) {
+				hasDigits = false;
+			}
+
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+
+		if (!hasDigits || (pos != tokenLength) || (numDigits > MAX_FAST_DIGITS)) {
+			return parseSlow(isSinglePrecision);
+		}
+
+		if (mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+
+		if ((exponent < -MAX_FAST_EXPONENT) || (exponent > MAX_FAST_EXPONENT)) {
+			return parseSlow(isSinglePrecision);
+		}
+
+		double value = (exponent < 0) ? (mantissa / POWERS_OF_TEN[-exponent]) : (mantissa * POWERS_OF_TEN[exponent]);
+
+		// rounding the double to a float rounds twice, which can only go wrong if the double lands exactly halfway between two floats
+		if (isSinglePrecision && ((value < Float.MIN_NORMAL) || ((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L))) {
+			return parseSlow(isSinglePrecision);
+		}
+
+		if (negative) {
+			value = -value;
+		}
+
+		return value;
+	}
+
+
+
+	private double parseSlow(final boolean isSinglePrecision) {
+		final String str = new String(token, 0, tokenLength);
+		return isSinglePrecision ? Float.parseFloat(str) : Double.parseDouble(str);
+	}
+}
@@ -0,0 +1,111 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+public class GiftiAsciiEncoder {
+
+	private boolean isFloat;
+	private boolean isUnsigned;
+	private int bytesPerUnit;
+	private long unsignedMask;
+	private final char[] digits = new char[20];
+	private final StringBuilder floatBuilder = new StringBuilder(MAX_VALUE_LENGTH);
+
+	public static final int MAX_VALUE_LENGTH = 32;
+	private static final float MAX_EXACT_FLOAT_INTEGER = 1 << 24;
+	private static final double MAX_EXACT_DOUBLE_INTEGER = 1L << 53;
+
+
+
+	/**
+	 * Prepares to format values in the data type of the data array.
+	 *
+	 * @param dataArray
+	 */
+	public void start(final DataArray dataArray) {
+		isFloat = dataArray.isFloatingPoint();
+		isUnsigned = dataArray.isUnsignedInt8() || dataArray.isUnsignedInt16() || dataArray.isUnsignedInt32() || dataArray.isUnsignedInt64();
+		bytesPerUnit = dataArray.getBytesPerUnit();
+		unsignedMask = (bytesPerUnit < 8) ? ((1L << (8 * bytesPerUnit)) - 1) : -1L;
+	}
+
+
+
+	/**
+	 * Formats a value as decimal text. Integral floating-point values are written without a fraction, other floating-point values in
+	 * the shortest form that reads back to the same value.
+	 *
+	 * @param value the bits of the value, as returned by GiftiWriterDataHandler.nextLong()
+	 * @param chars the destination, which must have room for MAX_VALUE_LENGTH characters from the offset
+	 * @param offset
+	 * @return the offset after the value
+	 */
+	public int encode(final long value, final char[] chars, final int offset) {
+		if (isFloat && (bytesPerUnit == 4)) {
+			final float floatValue = Float.intBitsToFloat((int) value);
+
+			if ((Math.abs(floatValue) < MAX_EXACT_FLOAT_INTEGER) && (floatValue == (int) floatValue) && ((int) value != 0x80000000)) {
+				return appendSigned((int) floatValue, chars, offset);
+			}
+
+			floatBuilder.setLength(0);
+			floatBuilder.append(floatValue);
+			return appendBuilder(chars, offset);
+		} else if (isFloat) {
+			final double doubleValue = Double.longBitsToDouble(value);
+
+			if ((Math.abs(doubleValue) < MAX_EXACT_DOUBLE_INTEGER) && (doubleValue == (long) doubleValue) && (value != Long.MIN_VALUE)) {
+				return appendSigned((long) doubleValue, chars, offset);
+			}
+
+			floatBuilder.setLength(0);
+			floatBuilder.append(doubleValue);
+			return appendBuilder(chars, offset);
+		} else if (isUnsigned) {
+			return appendUnsigned(value & unsignedMask, chars, offset);
+		}
+
+		return appendSigned(value, chars, offset);
+	}
+
+
+
+	private int appendBuilder(final char[] chars, final int offset) {
+		final int length = floatBuilder.length();
+		floatBuilder.getChars(0, length, chars, offset);
+		return offset + length;
+	}
+
+
+
+	private int appendSigned(final long value, final char[] chars, int offset) {
+		if (value < 0) {
+			chars[offset++] = '-';
+			return appendUnsigned(-value, chars, offset); // also right for Long.MIN_VALUE, whose negation is 2^63 unsigned
+		}
+
+		return appendUnsigned(value, chars, offset);
+	}
+
+
+
+	private int appendUnsigned(long value, final char[] chars, int offset) {
+		int length = 0;
+
+		if (value < 0) { // at least 2^63
+			final long quotient = (value >>> 1) / 5;
+			digits[length++] = (char) ('0' + (value - (quotient * 10)));
+			value = quotient;
+		}
+
+		do {
+			digits[length++] = (char) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+
+		while (length > 0) {
+			chars[offset++] = digits[--length];
+		}
+
+		return offset;
+	}
+}
@@ -0,0 +1,153 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.util.Arrays;
+
+
+public class GiftiBase64Decoder {
+
+	private char[] input;
+	private byte[] byteInput;
+	private int position;
+	private int limit;
+	private int quantum;
+	private int quantumSize;
+
+	private static final int PADDING = -2;
+	private static final int SKIP = -1;
+	private static final int[] DECODE_TABLE = new int[128];
+
+	static {
+		Arrays.fill(DECODE_TABLE, SKIP);
+
+		for (int ctr = 0; ctr < 26; ctr++) {
+			DECODE_TABLE['A' + ctr] = ctr;
+			DECODE_TABLE['a' + ctr] = ctr + 26;
+		}
+
+		for (int ctr = 0; ctr < 10; ctr++) {
+			DECODE_TABLE['0' + ctr] = ctr + 52;
+		}
+
+		DECODE_TABLE['+'] = 62;
+		DECODE_TABLE['/'] = 63;
+		DECODE_TABLE['-'] = 62; // URL-safe alphabet
+		DECODE_TABLE['_'] = 63;
+		DECODE_TABLE['='] = PADDING;
+	}
+
+
+
+	/**
+	 * Sets the characters to decode. Whitespace and other characters outside the Base64 alphabet are skipped. A partial quantum
+	 * left over from the previous input is carried over.
+	 *
+	 * @param input
+	 * @param offset
+	 * @param length
+	 */
+	public void setInput(final char[] input, final int offset, final int length) {
+		this.input = input;
+		byteInput = null;
+		position = offset;
+		limit = offset + length;
+	}
+
+
+
+	/**
+	 * Sets the ASCII bytes to decode. Whitespace and other bytes outside the Base64 alphabet are skipped. A partial quantum left over
+	 * from the previous input is carried over.
+	 *
+	 * @param input
+	 * @param offset
+	 * @param length
+	 */
+	public void setInput(final byte[] input, final int offset, final int length) {
+		byteInput = input;
+		this.input = null;
+		position = offset;
+		limit = offset + length;
+	}
+
+
+
+	/**
+	 * @return true if all characters of the current input have been consumed
+	 */
+	public boolean needsInput() {
+		return (position >= limit);
+	}
+
+
+
+	/**
+	 * Decodes as much of the current input as will fit in the output array.
+	 *
+	 * @param output
+	 * @param offset
+	 * @param length
+	 * @return the number of bytes written
+	 */
+	public int decode(final byte[] output, final int offset, final int length) {
+		final int outputLimit = offset + length - 2;
+		int outputPosition = offset;
+
+		while ((position < limit) && (outputPosition < outputLimit)) {
+			final int ch = (byteInput != null) ? byteInput[position++] : input[position++];
+			final int value = ((ch >= 0) && (ch < 128)) ? DECODE_TABLE[ch] : SKIP;
+
+			if (value >= 0) {
+				quantum = (quantum << 6) | value;
+				quantumSize++;
+
+				if (quantumSize == 4) {
+					output[outputPosition++] = (byte) (quantum >> 16);
+					output[outputPosition++] = (byte) (quantum >> 8);
+					output[outputPosition++] = (byte) quantum;
+					quantum = 0;
+					quantumSize = 0;
+				}
+			} else if (value == PADDING) {
+				outputPosition += flush(output, outputPosition);
+			}
+		}
+
+		return outputPosition - offset;
+	}
+
+
+
+	/**
+	 * Writes out an unpadded partial quantum at the end of the data, and resets the decoder.
+	 *
+	 * @param output
+	 * @param offset
+	 * @return the number of bytes written (at most 2)
+	 */
+	public int finish(final byte[] output, final int offset) {
+		final int numBytes = flush(output, offset);
+		input = null;
+		byteInput = null;
+		position = limit = 0;
+		return numBytes;
+	}
+
+
+
+	private int flush(final byte[] output, final int offset) {
+		int numBytes = 0;
+
+		if (quantumSize == 2) {
+			output[offset] = (byte) (quantum >> 4);
+			numBytes = 1;
+		} else if (quantumSize == 3) {
+			output[offset] = (byte) (quantum >> 10);
+			output[offset + 1] = (byte) (quantum >> 2);
+			numBytes = 2;
+		}
+
+		quantum = 0;
+		quantumSize = 0;
+		return numBytes;
+	}
+}
@@ -0,0 +1,135 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+public class GiftiBase64Encoder {
+
+	private final XMLStreamWriter out;
+	private final boolean lineBreaks;
+	private final char[] chars;
+	private final byte[] carry = new byte[2];
+	private int charMark;
+	private int carryLength;
+	private int lineLength;
+
+	public static final int LINE_LENGTH = 76;
+	public static final int MIN_BUFFER_SIZE = 6;
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out the writer to pass the characters to
+	 * @param lineBreaks true to end each line of LINE_LENGTH characters with CRLF, false otherwise
+	 * @param bufferSize the number of characters to collect before passing them to the writer, at least MIN_BUFFER_SIZE
+	 */
+	public GiftiBase64Encoder(final XMLStreamWriter out, final boolean lineBreaks, final int bufferSize) {
+		this.out = out;
+		this.lineBreaks = lineBreaks;
+		chars = new char[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+	}
+
+
+
+	/**
+	 * Encodes bytes. Bytes that do not complete a group of 3 are held until the next call, or until finish().
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @throws XMLStreamException
+	 */
+	public void write(final byte[] data, int offset, int length) throws XMLStreamException {
+		if (carryLength > 0) {
+			while ((carryLength < 2) && (length > 0)) {
+				carry[carryLength++] = data[offset++];
+				length--;
+			}
+
+			if (length == 0) {
+				return;
+			}
+
+			encodeGroup(carry[0], carry[1], data[offset++]);
+			carryLength = 0;
+			length--;
+		}
+
+		final int end = offset + length - (length % 3);
+
+		for (; offset < end; offset += 3) {
+			encodeGroup(data[offset], data[offset + 1], data[offset + 2]);
+		}
+
+		for (; offset < (end + (length % 3)); offset++) {
+			carry[carryLength++] = data[offset];
+		}
+	}
+
+
+
+	/**
+	 * Encodes the held bytes with padding and passes all remaining characters to the writer.
+	 *
+	 * @throws XMLStreamException
+	 */
+	public void finish() throws XMLStreamException {
+		if (carryLength > 0) {
+			reserveGroup();
+
+			final int bits = ((carry[0] & 0xFF) << 16) | ((carryLength > 1) ? ((carry[1] & 0xFF) << 8) : 0);
+			chars[charMark++] = ALPHABET[bits >>> 18];
+			chars[charMark++] = ALPHABET[(bits >>> 12) & 0x3F];
+			chars[charMark++] = (carryLength > 1) ? ALPHABET[(bits >>> 6) & 0x3F] : '=';
+			chars[charMark++] = '=';
+			carryLength = 0;
+		}
+
+		flush();
+	}
+
+
+
+	private void encodeGroup(final byte b0, final byte b1, final byte b2) throws XMLStreamException {
+		reserveGroup();
+
+		final int bits = ((b0 & 0xFF) << 16) | ((b1 & 0xFF) << 8) | (b2 & 0xFF);
+		chars[charMark++] = ALPHABET[bits >>> 18];
+		chars[charMark++] = ALPHABET[(bits >>> 12) & 0x3F];
+		chars[charMark++] = ALPHABET[(bits >>> 6) & 0x3F];
+		chars[charMark++] = ALPHABET[bits & 0x3F];
+	}
+
+
+
+	// makes room for a group of 4 characters, preceded by a line break if the line is full
+	private void reserveGroup() throws XMLStreamException {
+		if (charMark > (chars.length - MIN_BUFFER_SIZE)) {
+			flush();
+		}
+
+		if (lineBreaks) {
+			if (lineLength == LINE_LENGTH) {
+				chars[charMark++] = '\r';
+				chars[charMark++] = '\n';
+				lineLength = 0;
+			}
+
+			lineLength += 4;
+		}
+	}
+
+
+
+	private void flush() throws XMLStreamException {
+		if (charMark > 0) {
+			out.writeCharacters(chars, 0, charMark);
+			charMark = 0;
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class GiftiBatchReader {
+
+	private final GiftiReaderFactory factory;
+	private int parallelism;
+	private long memoryBudget;
+
+
+
+	/**
+	 * Constructor.
+	 */
+	public GiftiBatchReader() {
+		this(new GiftiReaderFactory());
+	}
+
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param factory the factory used to read each file, which holds the reader settings
+	 */
+	public GiftiBatchReader(final GiftiReaderFactory factory) {
+		this.factory = factory;
+		parallelism = Runtime.getRuntime().availableProcessors();
+	}
+
+
+
+	/**
+	 * @param parallelism the maximum number of files read at once (the default is the number of processors)
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+
+
+	/**
+	 * Sets the memory budget, which bounds the estimated data size of the files read at once. The data size of each file is estimated
+	 * from a header-only read, counting only the data arrays the factory loads while parsing, and a file is only read once its size fits
+	 * in the budget alongside the files being read. A file that is larger than the budget is read on its own. In completion order, the
+	 * budget also covers the results not yet taken from the iterator. When all results are returned together, the budget only limits
+	 * how many files are read at once, since every result is held until the list is returned.
+	 *
+	 * @param memoryBudget the budget in bytes, or 0 for no budget (the default)
+	 */
+	public void setMemoryBudget(final long memoryBudget) {
+		this.memoryBudget = Math.max(0, memoryBudget);
+	}
+
+
+
+	/**
+	 * Lists the files in a directory that match a glob pattern (e.g., "*.func.gii"), sorted by name.
+	 *
+	 * @param directory
+	 * @param glob
+	 * @return the files
+	 * @throws GiftiFormatException
+	 */
+	public static List<Path> listFiles(final Path directory, final String glob) throws GiftiFormatException {
+		final List<Path> paths = new ArrayList<Path>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+			for (final Path path : stream) {
+				if (Files.isRegularFile(path)) {
+					paths.add(path);
+				}
+			}
+		} catch (final IOException ex) {
+			throw new GiftiFormatException(ex);
+		}
+
+		Collections.sort(paths);
+		return paths;
+	}
+
+
+
+	/**
+	 * Reads the files that match a glob pattern in a directory.
+	 *
+	 * @param directory
+	 * @param glob
+	 * @return the results, in the order of the file names
+	 * @throws GiftiFormatException if the directory can't be listed, or the calling thread is interrupted
+	 */
+	public List<GiftiBatchResult> read(final Path directory, final String glob) throws GiftiFormatException {
+		return read(listFiles(directory, glob));
+	}
+
+
+
+	/**
+	 * Reads the files concurrently. A file that can't be read does not stop the batch; its result holds the error instead.
+	 *
+	 * @param paths
+	 * @return the results, in the same order as the paths
+	 * @throws GiftiFormatException if the calling thread is interrupted
+	 */
+	public List<GiftiBatchResult> read(final List<Path> paths) throws GiftiFormatException {
+		final MemoryBudget budget = new MemoryBudget(memoryBudget);
+		final ExecutorService executor = newExecutor(paths.size());
+		final List<Future<GiftiBatchResult>> futures = new ArrayList<Future<GiftiBatchResult>>();
+
+		try {
+			for (final Path path : paths) {
+				futures.add(executor.submit(newTask(path, budget, false)));
+			}
+
+			executor.shutdown();
+
+			final List<GiftiBatchResult> results = new ArrayList<GiftiBatchResult>();
+			for (final Future<GiftiBatchResult> future : futures) {
+				results.add(future.get());
+			}
+
+			return results;
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GiftiFormatException(ex);
+		} catch (final ExecutionException ex) {
+			throw new GiftiFormatException(ex.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+
+	/**
+	 * Reads the files concurrently, and returns each result as soon as its file has been read. A file that can't be read does not stop
+	 * the batch; its result holds the error instead.
+	 *
+	 * @param paths
+	 * @return the results, in the order the files finish
+	 */
+	public Iterator<GiftiBatchResult> readInCompletionOrder(final List<Path> paths) {
+		final MemoryBudget budget = new MemoryBudget(memoryBudget);
+		final ExecutorService executor = newExecutor(paths.size());
+		final CompletionService<GiftiBatchResult> completionService = new ExecutorCompletionService<GiftiBatchResult>(executor);
+
+		for (final Path path : paths) {
+			completionService.submit(newTask(path, budget, true));
+		}
+
+		executor.shutdown();
+
+		return new Iterator<GiftiBatchResult>() {
+
+			private int remaining = paths.size();
+
+
+
+			@Override
+			public boolean hasNext() {
+				return (remaining > 0);
+			}
+
+
+
+			@Override
+			public GiftiBatchResult next() {
+				if (remaining == 0) {
+					throw new NoSuchElementException();
+				}
+
+				try {
+					final GiftiBatchResult result = completionService.take().get();
+					remaining--;
+					budget.release(result.getReservedBytes());
+					return result;
+				} catch (final InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for the next file!", ex);
+				} catch (final ExecutionException ex) {
+					throw new IllegalStateException("Could not read the next file!", ex.getCause());
+				}
+			}
+
+
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+
+
+	// a held reservation is released once the caller takes the result, otherwise it is released as soon as the file has been read
+	private Callable<GiftiBatchResult> newTask(final Path path, final MemoryBudget budget, final boolean isHoldingReservation) {
+		return new Callable<GiftiBatchResult>() {
+
+			@Override
+			public GiftiBatchResult call() throws InterruptedException {
+				long reservedBytes = 0;
+
+				try {
+					if (budget.isLimited() && !factory.isLazy()) {
+						reservedBytes = budget.acquire(estimateSize(factory.readHeader(path)));
+					}
+
+					final GIFTI gifti = factory.read(path);
+					return new GiftiBatchResult(path, gifti, null, isHoldingReservation ? reservedBytes : 0);
+				} catch (final GiftiFormatException ex) {
+					return new GiftiBatchResult(path, null, ex, isHoldingReservation ? reservedBytes : 0);
+				} catch (final RuntimeException ex) {
+					return new GiftiBatchResult(path, null, new GiftiFormatException(ex), isHoldingReservation ? reservedBytes : 0);
+				} finally {
+					if (!isHoldingReservation) {
+						budget.release(reservedBytes);
+					}
+				}
+			}
+		};
+	}
+
+
+
+	private ExecutorService newExecutor(final int numFiles) {
+		return Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, numFiles)), new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "gifti-batch-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+
+	// lazy data arrays are only decoded once accessed, and data arrays rejected by the filter are not decoded at all
+	private long estimateSize(final GIFTI header) {
+		if (factory.isLazy()) {
+			return 0;
+		}
+
+		final DataArrayFilter filter = factory.getFilter();
+		final List<DataArray> dataArrays = header.getDataArrays();
+		long size = 0;
+
+		for (int ctr = 0; ctr < dataArrays.size(); ctr++) {
+			final DataArray dataArray = dataArrays.get(ctr);
+			if ((filter == null) || filter.accept(ctr, dataArray.getAttributes())) {
+				size += dataArray.getNumBytes();
+			}
+		}
+
+		return size;
+	}
+
+
+
+	private static class MemoryBudget {
+
+		private final long limit;
+		private long used;
+
+
+
+		private MemoryBudget(final long limit) {
+			this.limit = limit;
+		}
+
+
+
+		private boolean isLimited() {
+			return (limit > 0);
+		}
+
+
+
+		private synchronized long acquire(final long numBytes) throws InterruptedException {
+			final long reserved = Math.min(numBytes, limit); // a file larger than the budget waits until it can be read on its own
+
+			while ((used + reserved) > limit) {
+				wait();
+			}
+
+			used += reserved;
+			return reserved;
+		}
+
+
+
+		private synchronized void release(final long numBytes) {
+			if (numBytes > 0) {
+				used -= numBytes;
+				notifyAll();
+			}
+		}
+	}
+}
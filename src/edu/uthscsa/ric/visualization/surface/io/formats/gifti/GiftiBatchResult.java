@@ -0,0 +1,76 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.nio.file.Path;
+
+
+public class GiftiBatchResult {
+
+	private final Path path;
+	private final GIFTI gifti;
+	private final GiftiFormatException exception;
+	private final long reservedBytes;
+
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param path the file that was read
+	 * @param gifti the GIFTI object, or null if the file could not be read
+	 * @param exception the error, or null if the file was read
+	 * @param reservedBytes the part of the memory budget held by this result
+	 */
+	GiftiBatchResult(final Path path, final GIFTI gifti, final GiftiFormatException exception, final long reservedBytes) {
+		this.path = path;
+		this.gifti = gifti;
+		this.exception = exception;
+		this.reservedBytes = reservedBytes;
+	}
+
+
+
+	/**
+	 * @return the file that was read
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+
+
+	/**
+	 * @return the GIFTI object
+	 * @throws GiftiFormatException if the file could not be read
+	 */
+	public GIFTI getGifti() throws GiftiFormatException {
+		if (exception != null) {
+			throw exception;
+		}
+
+		return gifti;
+	}
+
+
+
+	/**
+	 * @return the error, or null if the file was read
+	 */
+	public GiftiFormatException getException() {
+		return exception;
+	}
+
+
+
+	/**
+	 * @return true if the file was read
+	 */
+	public boolean isSuccessful() {
+		return (exception == null);
+	}
+
+
+
+	long getReservedBytes() {
+		return reservedBytes;
+	}
+}
@@ -0,0 +1,530 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+public class GiftiByteParser {
+
+	private GiftiReader handler;
+	private final byte[] buffer;
+	private final ByteBuffer byteBuffer;
+	private final Deque<String> elements;
+	private final AttributesImpl attributes;
+	private final TextBuffer text;
+	private final TextBuffer value;
+	private FileChannel channel;
+	private long bufferOffset;
+	private int position;
+	private int limit;
+	private boolean isReadingData;
+	private long dataOffset;
+	private boolean isDocumentEnded;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+
+	/**
+	 * Constructor. A parser can be reused for any number of files, one at a time.
+	 */
+	public GiftiByteParser() {
+		buffer = new byte[GiftiReader.BUFFER_SIZE * 8];
+		byteBuffer = ByteBuffer.wrap(buffer);
+		elements = new ArrayDeque<String>();
+		attributes = new AttributesImpl();
+		text = new TextBuffer();
+		value = new TextBuffer();
+	}
+
+
+
+	/**
+	 * Parses the file. Elements and text are passed to the reader as SAX events, while the contents of Data elements are passed to the
+	 * reader as raw bytes, or skipped if the reader does not need them, followed by their byte offset and length in the file. Parsing stops
+	 * at the end of the root element.
+	 *
+	 * @param file
+	 * @param handler the reader to receive the parsed content
+	 * @throws GiftiFormatException
+	 */
+	public void parse(final File file, final GiftiReader handler) throws GiftiFormatException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fileChannel = raf.getChannel()) {
+			this.handler = handler;
+			channel = fileChannel;
+			bufferOffset = 0;
+			position = limit = 0;
+			isReadingData = false;
+			isDocumentEnded = false;
+			elements.clear();
+			text.clear();
+
+			parseContent();
+		} catch (final IOException ex) {
+			throw new GiftiFormatException(ex);
+		} catch (final SAXException ex) {
+			throw new GiftiFormatException(ex);
+		} finally {
+			this.handler = null;
+			channel = null;
+		}
+	}
+
+
+
+	private void parseContent() throws IOException, SAXException, GiftiFormatException {
+		while (!isDocumentEnded && fill()) {
+			if (isReadingData) {
+				parseData();
+			} else {
+				final int ch = buffer[position++];
+
+				if (ch == '<') {
+					flushText();
+					parseMarkup();
+				} else if (ch == '&') {
+					parseReference(text);
+				} else {
+					text.append(ch);
+				}
+			}
+		}
+
+		flushText();
+
+		if (!elements.isEmpty()) {
+			throw error("Unexpected end of file, expected end of " + elements.peek());
+		}
+	}
+
+
+
+	private void parseData() throws IOException, SAXException, GiftiFormatException {
+		final int start = position;
+		final boolean isSkippingData = handler.isSkippingData();
+
+		// Base64 and ASCII data never contain markup, so skipped data only needs to be scanned for the closing tag
+		while ((position < limit) && (buffer[position] != '<') && (isSkippingData || (buffer[position] != '&'))) {
+			position++;
+		}
+
+		if (!isSkippingData && (position > start)) {
+			handler.data(buffer, start, position - start);
+		}
+
+		if (position < limit) {
+			if (buffer[position++] == '<') {
+				parseMarkup();
+			} else {
+				parseReference(text);
+				flushText();
+			}
+		}
+	}
+
+
+
+	private void parseMarkup() throws IOException, SAXException, GiftiFormatException {
+		final long markupOffset = bufferOffset + position - 1; // the '<' has been read
+		final int ch = read();
+
+		if (ch == '/') {
+			final String name = readName(read());
+			skipWhitespace();
+			expect('>');
+
+			if (!name.equals(elements.peek())) {
+				throw error("Unexpected end of " + name);
+			}
+
+			elements.pop();
+			isDocumentEnded = elements.isEmpty();
+
+			if (isReadingData) {
+				isReadingData = false;
+				handler.payload(dataOffset, markupOffset - dataOffset);
+			}
+
+			handler.endElement("", name, name);
+		} else if (ch == '?') {
+			skipPast("?>");
+		} else if (ch == '!') {
+			if (peek() == '-') {
+				expect('-');
+				expect('-');
+				skipPast("-->");
+			} else if (peek() == '[') {
+				for (int ctr = 0; ctr < 7; ctr++) {
+					read(); // [CDATA[
+				}
+
+				parseCData();
+			} else {
+				skipDeclaration();
+			}
+		} else {
+			parseStartElement(ch);
+		}
+	}
+
+
+
+	private void parseStartElement(final int first) throws IOException, SAXException, GiftiFormatException {
+		final String name = readName(first);
+		attributes.clear();
+
+		while (true) {
+			skipWhitespace();
+			final int ch = read();
+
+			if (ch == '>') {
+				elements.push(name);
+				isReadingData = name.equalsIgnoreCase(GiftiReader.TAG_DATA);
+				handler.startElement("", name, name, attributes);
+
+				if (isReadingData) {
+					dataOffset = bufferOffset + position;
+					skip(handler.skipData());
+				}
+				break;
+			} else if (ch == '/') {
+				expect('>');
+				handler.startElement("", name, name, attributes);
+
+				if (name.equalsIgnoreCase(GiftiReader.TAG_DATA)) {
+					handler.payload(bufferOffset + position, 0);
+				}
+
+				handler.endElement("", name, name);
+				break;
+			} else {
+				final String attributeName = readName(ch);
+				skipWhitespace();
+				expect('=');
+				skipWhitespace();
+
+				final int quote = read();
+				if ((quote != '"') && (quote != '\'')) {
+					throw error("Expected quoted value for attribute " + attributeName);
+				}
+
+				value.clear();
+
+				int valueChar;
+				while ((valueChar = read()) != quote) {
+					if (valueChar == -1) {
+						throw error("Unexpected end of file in attribute " + attributeName);
+					} else if (valueChar == '&') {
+						parseReference(value);
+					} else if ((valueChar == '\t') || (valueChar == '\n') || (valueChar == '\r')) {
+						value.append(' ');
+					} else {
+						value.append(valueChar);
+					}
+				}
+
+				attributes.addAttribute("", attributeName, attributeName, "CDATA", value.toString());
+			}
+		}
+	}
+
+
+
+	private void parseCData() throws IOException, SAXException, GiftiFormatException {
+		int brackets = 0;
+
+		while (true) {
+			final int ch = read();
+
+			if (ch == -1) {
+				throw error("Unexpected end of file in CDATA section");
+			} else if ((ch == '>') && (brackets >= 2)) {
+				text.length -= 2;
+				break;
+			}
+
+			brackets = (ch == ']') ? (brackets + 1) : 0;
+			text.append(ch);
+
+			if (isReadingData && (text.length == text.data.length)) {
+				final int numBytes = text.length - brackets;
+				handler.data(text.data, 0, numBytes);
+				System.arraycopy(text.data, numBytes, text.data, 0, brackets);
+				text.length = brackets;
+			}
+		}
+
+		if (isReadingData) {
+			handler.data(text.data, 0, text.length);
+			text.clear();
+		}
+	}
+
+
+
+	private void parseReference(final TextBuffer target) throws IOException, GiftiFormatException {
+		final StringBuilder sb = new StringBuilder();
+
+		int ch;
+		while ((ch = read()) != ';') {
+			if ((ch == -1) || (sb.length() > 10)) {
+				throw error("Malformed entity reference");
+			}
+
+			sb.append((char) ch);
+		}
+
+		final String reference = sb.toString();
+
+		if (reference.equals("lt")) {
+			target.append('<');
+		} else if (reference.equals("gt")) {
+			target.append('>');
+		} else if (reference.equals("amp")) {
+			target.append('&');
+		} else if (reference.equals("quot")) {
+			target.append('"');
+		} else if (reference.equals("apos")) {
+			target.append('\'');
+		} else if (reference.startsWith("#x")) {
+			target.appendCodePoint(parseCodePoint(reference.substring(2), 16));
+		} else if (reference.startsWith("#")) {
+			target.appendCodePoint(parseCodePoint(reference.substring(1), 10));
+		} else {
+			throw error("Unknown entity reference &" + reference + ";");
+		}
+	}
+
+
+
+	private int parseCodePoint(final String str, final int radix) throws GiftiFormatException {
+		try {
+			return Integer.parseInt(str, radix);
+		} catch (final NumberFormatException ex) {
+			throw error("Malformed character reference");
+		}
+	}
+
+
+
+	private void flushText() throws SAXException {
+		if (text.length > 0) {
+			if (!elements.isEmpty()) {
+				String str = text.toString();
+
+				if (str.indexOf('\r') != -1) {
+					str = str.replace("\r\n", "\n").replace('\r', '\n');
+				}
+
+				handler.characters(str.toCharArray(), 0, str.length());
+			}
+
+			text.clear();
+		}
+	}
+
+
+
+	private void skipDeclaration() throws IOException, GiftiFormatException {
+		int depth = 0;
+		int quote = 0;
+
+		while (true) {
+			final int ch = read();
+
+			if (ch == -1) {
+				throw error("Unexpected end of file in declaration");
+			} else if (quote != 0) {
+				if (ch == quote) {
+					quote = 0;
+				}
+			} else if ((ch == '"') || (ch == '\'')) {
+				quote = ch;
+			} else if (ch == '[') {
+				depth++;
+			} else if (ch == ']') {
+				depth--;
+			} else if ((ch == '>') && (depth <= 0)) {
+				break;
+			}
+		}
+	}
+
+
+
+	private void skipPast(final String terminator) throws IOException, GiftiFormatException {
+		final int last = terminator.charAt(terminator.length() - 1);
+		final int repeated = terminator.charAt(0);
+		final int numRepeated = terminator.length() - 1;
+		int count = 0;
+
+		while (true) {
+			final int ch = read();
+
+			if (ch == -1) {
+				throw error("Unexpected end of file, expected " + terminator);
+			} else if ((ch == last) && (count >= numRepeated)) {
+				break;
+			}
+
+			count = (ch == repeated) ? (count + 1) : 0;
+		}
+	}
+
+
+
+	private String readName(final int first) throws IOException, GiftiFormatException {
+		if (!isNameChar(first)) {
+			throw error("Expected a name");
+		}
+
+		value.clear();
+		value.append(first);
+
+		while (isNameChar(peek())) {
+			value.append(read());
+		}
+
+		return value.toString();
+	}
+
+
+
+	private void skipWhitespace() throws IOException {
+		while (isWhitespace(peek())) {
+			position++;
+		}
+	}
+
+
+
+	private void expect(final int expected) throws IOException, GiftiFormatException {
+		if (read() != expected) {
+			throw error("Expected '" + (char) expected + "'");
+		}
+	}
+
+
+
+	private int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+
+		return buffer[position++] & 0xFF;
+	}
+
+
+
+	private int peek() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+
+		return buffer[position] & 0xFF;
+	}
+
+
+
+	private void skip(final long numBytes) throws IOException {
+		if (numBytes <= (limit - position)) {
+			position += numBytes;
+		} else {
+			final long target = bufferOffset + position + numBytes;
+			channel.position(target);
+			bufferOffset = target;
+			position = limit = 0;
+		}
+	}
+
+
+
+	private boolean fill() throws IOException {
+		if (position < limit) {
+			return true;
+		}
+
+		bufferOffset += limit;
+		byteBuffer.clear();
+
+		int bytesRead;
+		do {
+			bytesRead = channel.read(byteBuffer);
+		} while (bytesRead == 0);
+
+		position = 0;
+		limit = Math.max(0, bytesRead);
+
+		return (limit > 0);
+	}
+
+
+
+	private GiftiFormatException error(final String message) {
+		return new GiftiFormatException(message + " at byte offset " + (bufferOffset + position) + "!");
+	}
+
+
+
+	private static boolean isNameChar(final int ch) {
+		return (ch != -1) && (ch != '>') && (ch != '/') && (ch != '=') && !isWhitespace(ch);
+	}
+
+
+
+	private static boolean isWhitespace(final int ch) {
+		return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == '\r');
+	}
+
+
+
+	private static class TextBuffer {
+
+		private byte[] data = new byte[256];
+		private int length;
+
+
+
+		private void append(final int b) {
+			if (length == data.length) {
+				final byte[] expanded = new byte[data.length * 2];
+				System.arraycopy(data, 0, expanded, 0, length);
+				data = expanded;
+			}
+
+			data[length++] = (byte) b;
+		}
+
+
+
+		private void appendCodePoint(final int codePoint) {
+			final byte[] bytes = new String(Character.toChars(codePoint)).getBytes(UTF8);
+
+			for (final byte b : bytes) {
+				append(b);
+			}
+		}
+
+
+
+		private void clear() {
+			length = 0;
+		}
+
+
+
+		@Override
+		public String toString() {
+			return new String(data, 0, length, UTF8);
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+public class GiftiDataDecoder {
+
+	private DataArray dataArray;
+	private SegmentedByteBuffer currentBuffer;
+	private GiftiReaderDataHandler dataHandler;
+	private Inflater inflater;
+	private int leftOverBytes;
+	private long numBytesDecoded;
+	private int numBytes;
+	private final GiftiBase64Decoder base64;
+	private final GiftiAsciiDecoder ascii;
+	private final byte[] buffer = new byte[GiftiReader.BUFFER_SIZE];
+	private final byte[] decodedBuffer = new byte[GiftiReader.BUFFER_SIZE];
+	private final ByteBuffer orderedBuffer = ByteBuffer.wrap(buffer);
+	private final char[] chars = new char[GiftiReader.BUFFER_SIZE];
+	private GiftiVisitor visitor;
+	private SegmentedByteBuffer chunkBuffer;
+	private ByteBuffer chunk;
+
+	public static final int CHUNK_SIZE = 1 << 16;
+	private static final int ASCII_SLICE_LENGTH = 4096;
+
+
+
+	/**
+	 * Constructor.
+	 */
+	public GiftiDataDecoder() {
+		base64 = new GiftiBase64Decoder();
+		ascii = new GiftiAsciiDecoder();
+	}
+
+
+
+	/**
+	 * Prepares to decode the contents of a Data element into the buffer of the specified data array.
+	 *
+	 * @param dataArray
+	 */
+	public void start(final DataArray dataArray) {
+		start(dataArray, dataArray.getInternalSegmentedBuffer());
+	}
+
+
+
+	/**
+	 * Prepares to decode the contents of a Data element into the specified buffer, from its position.
+	 *
+	 * @param dataArray
+	 * @param byteBuffer
+	 */
+	public void start(final DataArray dataArray, final SegmentedByteBuffer byteBuffer) {
+		visitor = null;
+		this.dataArray = dataArray;
+		currentBuffer = byteBuffer;
+		leftOverBytes = 0;
+		numBytesDecoded = 0;
+		numBytes = Math.max(1, dataArray.getBytesPerUnit());
+		orderedBuffer.order(dataArray.getByteOrder());
+		dataHandler = new GiftiReaderDataHandler(dataArray.isGzipBase64Binary() ? getInflater() : null);
+
+		if (dataArray.isAscii()) {
+			ascii.start(dataArray, byteBuffer);
+		}
+	}
+
+
+
+	/**
+	 * Prepares to decode the contents of a Data element into a reusable buffer of CHUNK_SIZE bytes, which is passed to the visitor
+	 * whenever it fills up, so that memory use does not depend on the size of the data array.
+	 *
+	 * @param dataArray
+	 * @param visitor
+	 */
+	public void start(final DataArray dataArray, final GiftiVisitor visitor) {
+		if (chunkBuffer == null) {
+			chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			chunk.order(ByteOrder.nativeOrder());
+			chunkBuffer = SegmentedByteBuffer.wrap(chunk);
+		}
+
+		start(dataArray, chunkBuffer.rewind());
+		this.visitor = visitor;
+	}
+
+
+
+	/**
+	 * @param ch
+	 * @param start
+	 * @param length
+	 * @throws DataFormatException
+	 */
+	public void decode(final char[] ch, final int start, final int length) throws DataFormatException {
+		if (dataArray.isAscii() && (visitor != null)) {
+			for (int offset = start; offset < (start + length); offset += ASCII_SLICE_LENGTH) {
+				reserveAsciiChunk();
+				ascii.decode(ch, offset, Math.min(ASCII_SLICE_LENGTH, (start + length) - offset));
+			}
+		} else if (dataArray.isAscii()) {
+			ascii.decode(ch, start, length);
+		} else if (dataArray.isBase64Encoded()) {
+			base64.setInput(ch, start, length);
+
+			while (!base64.needsInput()) {
+				handleBinaryData(decodedBuffer, base64.decode(decodedBuffer, 0, decodedBuffer.length));
+			}
+		}
+	}
+
+
+
+	/**
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @throws DataFormatException
+	 */
+	public void decode(final byte[] bytes, final int offset, final int length) throws DataFormatException {
+		if (dataArray.isAscii() && (visitor != null)) {
+			for (int sliceOffset = offset; sliceOffset < (offset + length); sliceOffset += ASCII_SLICE_LENGTH) {
+				reserveAsciiChunk();
+				ascii.decode(bytes, sliceOffset, Math.min(ASCII_SLICE_LENGTH, (offset + length) - sliceOffset));
+			}
+		} else if (dataArray.isAscii()) {
+			ascii.decode(bytes, offset, length);
+		} else if (dataArray.isBase64Encoded()) {
+			base64.setInput(bytes, offset, length);
+
+			while (!base64.needsInput()) {
+				handleBinaryData(decodedBuffer, base64.decode(decodedBuffer, 0, decodedBuffer.length));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Decodes the captured contents of a Data element.
+	 *
+	 * @param payload
+	 * @throws DataFormatException
+	 */
+	public void decode(final StringBuilder payload) throws DataFormatException {
+		final int payloadLength = payload.length();
+
+		for (int offset = 0; offset < payloadLength; offset += chars.length) {
+			final int length = Math.min(chars.length, payloadLength - offset);
+			payload.getChars(offset, offset + length, chars, 0);
+			decode(chars, 0, length);
+		}
+	}
+
+
+
+	/**
+	 * Flushes any partially decoded data at the end of a Data element.
+	 *
+	 * @throws DataFormatException if compressed data ends before the data array is filled
+	 */
+	public void finish() throws DataFormatException {
+		if (dataArray.isAscii()) {
+			reserveAsciiChunk();
+			ascii.finish();
+		} else if (dataArray.isBase64Encoded()) {
+			handleBinaryData(decodedBuffer, base64.finish(decodedBuffer, 0));
+		}
+
+		if (dataArray.isGzipBase64Binary()) {
+			drainInflater();
+
+			if (numBytesDecoded < dataArray.getNumBytes()) {
+				throw new DataFormatException("Compressed data ended after " + numBytesDecoded + " of " + dataArray.getNumBytes() + " bytes!");
+			}
+		}
+
+		flushChunk();
+
+		dataArray = null;
+		currentBuffer = null;
+		dataHandler = null;
+		visitor = null;
+	}
+
+
+
+	/**
+	 * Releases the native memory of the inflater. The decoder can still be used afterwards.
+	 */
+	public void end() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+
+
+
+	// a slice of ASCII_SLICE_LENGTH characters ends at most one value per two characters, plus the value carried over
+	private void reserveAsciiChunk() {
+		if ((visitor != null) && (currentBuffer.remaining() < (((ASCII_SLICE_LENGTH / 2) + 2) * 8L))) {
+			flushChunk();
+		}
+	}
+
+
+
+	private void flushChunk() {
+		if ((visitor != null) && (currentBuffer.position() > 0)) {
+			chunk.position(0);
+			chunk.limit((int) currentBuffer.position());
+			visitor.onChunk(chunk);
+
+			// the values are written with absolute puts, which need the full limit and the native byte order back
+			chunk.clear();
+			chunk.order(ByteOrder.nativeOrder());
+			currentBuffer.rewind();
+		}
+	}
+
+
+
+	private Inflater getInflater() {
+		if (inflater == null) {
+			inflater = new Inflater();
+		} else {
+			inflater.reset();
+		}
+
+		return inflater;
+	}
+
+
+
+	private void handleBinaryData(final byte[] data, final int length) throws DataFormatException {
+		if (length == 0) {
+			return;
+		}
+
+		dataHandler.setData(data, 0, length);
+
+		while (dataHandler.hasMoreData()) {
+			storeData(dataHandler.readData(buffer, leftOverBytes, buffer.length - leftOverBytes));
+		}
+	}
+
+
+
+	// the inflater holds back output that did not fit in the buffer once its input is used up, until it is asked for more
+	private void drainInflater() throws DataFormatException {
+		while (!inflater.finished()) {
+			final int bytesInflated = inflater.inflate(buffer, leftOverBytes, buffer.length - leftOverBytes);
+			if (bytesInflated == 0) {
+				break;
+			}
+
+			storeData(bytesInflated);
+		}
+	}
+
+
+
+	private void storeData(final int length) {
+		final int bytesRead = length + leftOverBytes;
+		final int validBytes = (bytesRead / numBytes) * numBytes;
+
+		if ((visitor != null) && (currentBuffer.remaining() < validBytes)) {
+			flushChunk();
+		}
+
+		orderedBuffer.clear();
+		orderedBuffer.limit(validBytes);
+		currentBuffer.put(orderedBuffer, numBytes);
+
+		for (int ctr = validBytes; ctr < bytesRead; ctr++) {
+			buffer[ctr - validBytes] = buffer[ctr];
+		}
+
+		leftOverBytes = bytesRead - validBytes;
+		numBytesDecoded += validBytes;
+	}
+}
@@ -0,0 +1,174 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+public class GiftiFuture<V> implements Future<V> {
+
+	private V value;
+	private Throwable failure;
+	private boolean isDone;
+	private boolean isCancelled;
+	private List<Runnable> listeners;
+
+
+
+	/**
+	 * Constructor.
+	 */
+	GiftiFuture() {
+		listeners = new ArrayList<Runnable>();
+	}
+
+
+
+	/**
+	 * Adds a listener that runs once the future is done, whether it succeeded, failed or was cancelled. If the future is already done,
+	 * the listener is handed to the executor right away.
+	 *
+	 * @param listener
+	 * @param executor the executor that runs the listener (e.g., the event dispatch thread of a viewer)
+	 */
+	public void addListener(final Runnable listener, final Executor executor) {
+		final Runnable dispatch = new Runnable() {
+
+			@Override
+			public void run() {
+				executor.execute(listener);
+			}
+		};
+
+		synchronized (this) {
+			if (!isDone) {
+				listeners.add(dispatch);
+				return;
+			}
+		}
+
+		dispatch.run();
+	}
+
+
+
+	/**
+	 * Cancels the future. Cancelling the future of a read stops the read at the next data array; cancelling the future of a single data
+	 * array does not affect the read.
+	 *
+	 * @param mayInterruptIfRunning ignored, the reading thread is never interrupted
+	 * @return true if the future was cancelled, false if it was already done
+	 */
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		return finish(null, null, true);
+	}
+
+
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return isCancelled;
+	}
+
+
+
+	@Override
+	public synchronized boolean isDone() {
+		return isDone;
+	}
+
+
+
+	@Override
+	public synchronized V get() throws InterruptedException, ExecutionException {
+		while (!isDone) {
+			wait();
+		}
+
+		return getResult();
+	}
+
+
+
+	@Override
+	public synchronized V get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!isDone) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+
+		return getResult();
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return true if the future was completed, false if it was already done
+	 */
+	boolean complete(final V value) {
+		return finish(value, null, false);
+	}
+
+
+
+	/**
+	 * @param failure
+	 * @return true if the future was completed, false if it was already done
+	 */
+	boolean fail(final Throwable failure) {
+		return finish(null, failure, false);
+	}
+
+
+
+	private V getResult() throws ExecutionException {
+		if (isCancelled) {
+			throw new CancellationException();
+		} else if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+
+		return value;
+	}
+
+
+
+	private boolean finish(final V value, final Throwable failure, final boolean cancelled) {
+		final List<Runnable> currentListeners;
+
+		synchronized (this) {
+			if (isDone) {
+				return false;
+			}
+
+			this.value = value;
+			this.failure = failure;
+			isCancelled = cancelled;
+			isDone = true;
+			currentListeners = listeners;
+			listeners = null;
+			notifyAll();
+		}
+
+		for (final Runnable listener : currentListeners) {
+			try {
+				listener.run();
+			} catch (final RuntimeException ex) {} // a listener whose executor rejects it must not stop the read
+		}
+
+		return true;
+	}
+}
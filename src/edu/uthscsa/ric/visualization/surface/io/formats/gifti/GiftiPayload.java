@@ -0,0 +1,304 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+public class GiftiPayload {
+
+	private final File file;
+	private final long offset;
+	private final long length;
+
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the file containing the encoded data
+	 * @param offset the byte offset of the contents of the Data element
+	 * @param length the byte length of the contents of the Data element
+	 */
+	public GiftiPayload(final File file, final long offset, final long length) {
+		this.file = file;
+		this.offset = offset;
+		this.length = length;
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+
+
+	/**
+	 * @return
+	 */
+	public long getLength() {
+		return length;
+	}
+
+
+
+	/**
+	 * Reads and decodes the encoded data into a buffer.
+	 *
+	 * @param dataArray the data array describing the encoded data
+	 * @param byteBuffer the buffer to decode into
+	 * @throws GiftiFormatException
+	 */
+	public void decode(final DataArray dataArray, final SegmentedByteBuffer byteBuffer) throws GiftiFormatException {
+		final GiftiDataDecoder decoder = new GiftiDataDecoder();
+		decoder.start(dataArray, byteBuffer);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			final ByteBuffer bytes = ByteBuffer.allocate(GiftiReader.BUFFER_SIZE);
+			final TextFilter filter = new TextFilter(bytes.capacity());
+			final long end = offset + length;
+			long position = offset;
+
+			while (position < end) {
+				bytes.clear();
+				bytes.limit((int) Math.min(bytes.capacity(), end - position));
+
+				final int bytesRead = channel.read(bytes, position);
+				if (bytesRead < 0) {
+					throw new GiftiFormatException("Unexpected end of file " + file + "!");
+				}
+
+				decoder.decode(filter.getText(), 0, filter.filter(bytes.array(), bytesRead));
+				position += bytesRead;
+			}
+
+			filter.finish();
+			decoder.finish();
+		} catch (final IOException ex) {
+			throw new GiftiFormatException(ex);
+		} catch (final DataFormatException ex) {
+			throw new GiftiFormatException(ex);
+		} finally {
+			decoder.end();
+		}
+	}
+
+
+
+	/**
+	 * Copies the encoded data to a writer without decoding it. Character references, entity references, CDATA sections and comments
+	 * within the Data element are resolved to the text they stand for, which the writer escapes again where needed.
+	 *
+	 * @param out
+	 * @param bufferSize the number of bytes to read at a time
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	void copyTo(final XMLStreamWriter out, final int bufferSize) throws IOException, XMLStreamException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			final ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+			final TextFilter filter = new TextFilter(bufferSize);
+			final char[] chars = new char[filter.getText().length];
+			final long end = offset + length;
+			long position = offset;
+
+			while (position < end) {
+				bytes.clear();
+				bytes.limit((int) Math.min(bytes.capacity(), end - position));
+
+				final int bytesRead = channel.read(bytes, position);
+				if (bytesRead < 0) {
+					throw new EOFException("Unexpected end of file " + file + "!");
+				}
+
+				// encoded data is ASCII, so each byte is one character
+				final int textLength = filter.filter(bytes.array(), bytesRead);
+				final byte[] text = filter.getText();
+				for (int ctr = 0; ctr < textLength; ctr++) {
+					chars[ctr] = (char) (text[ctr] & 0xFF);
+				}
+
+				out.writeCharacters(chars, 0, textLength);
+				position += bytesRead;
+			}
+
+			filter.finish();
+		}
+	}
+
+
+
+	// resolves the markup that XML allows within character data, for payloads written by tools that escape or wrap their data
+	private static class TextFilter {
+
+		private final byte[] text;
+		private final StringBuilder markup = new StringBuilder();
+		private int state = STATE_TEXT;
+		private int repeats;
+
+		private static final int STATE_TEXT = 0;
+		private static final int STATE_REFERENCE = 1;
+		private static final int STATE_MARKUP = 2;
+		private static final int STATE_CDATA = 3;
+		private static final int STATE_COMMENT = 4;
+
+		private static final String CDATA_START = "![CDATA[";
+		private static final String COMMENT_START = "!--";
+		private static final int MAX_REFERENCE_LENGTH = 10;
+
+
+
+		private TextFilter(final int bufferSize) {
+			// a CDATA section can hold back two brackets from the previous buffer
+			text = new byte[bufferSize + 2];
+		}
+
+
+
+		private byte[] getText() {
+			return text;
+		}
+
+
+
+		// returns the number of bytes of text
+		private int filter(final byte[] bytes, final int length) throws IOException {
+			int textLength = 0;
+
+			for (int ctr = 0; ctr < length; ctr++) {
+				final int b = bytes[ctr] & 0xFF;
+
+				switch (state) {
+					case STATE_TEXT:
+						if (b == '&') {
+							state = STATE_REFERENCE;
+							markup.setLength(0);
+						} else if (b == '<') {
+							state = STATE_MARKUP;
+							markup.setLength(0);
+						} else {
+							text[textLength++] = (byte) b;
+						}
+						break;
+					case STATE_REFERENCE:
+						if (b == ';') {
+							text[textLength++] = (byte) resolveReference(markup.toString());
+							state = STATE_TEXT;
+						} else if (markup.length() < MAX_REFERENCE_LENGTH) {
+							markup.append((char) b);
+						} else {
+							throw new IOException("Malformed entity reference in Data element!");
+						}
+						break;
+					case STATE_MARKUP:
+						markup.append((char) b);
+
+						if (markup.length() == CDATA_START.length() && CDATA_START.contentEquals(markup)) {
+							state = STATE_CDATA;
+							repeats = 0;
+						} else if (markup.length() == COMMENT_START.length() && COMMENT_START.contentEquals(markup)) {
+							state = STATE_COMMENT;
+							repeats = 0;
+						} else if (!CDATA_START.startsWith(markup.toString()) && !COMMENT_START.startsWith(markup.toString())) {
+							throw new IOException("Unexpected markup <" + markup + " in Data element!");
+						}
+						break;
+					case STATE_CDATA:
+						if (b == ']') {
+							// only the last two brackets can start the end of the section
+							if (repeats == 2) {
+								text[textLength++] = ']';
+							} else {
+								repeats++;
+							}
+						} else if ((b == '>') && (repeats == 2)) {
+							state = STATE_TEXT;
+						} else {
+							for (; repeats > 0; repeats--) {
+								text[textLength++] = ']';
+							}
+
+							text[textLength++] = (byte) b;
+						}
+						break;
+					case STATE_COMMENT:
+						if (b == '-') {
+							repeats++;
+						} else if ((b == '>') && (repeats >= 2)) {
+							state = STATE_TEXT;
+						} else {
+							repeats = 0;
+						}
+						break;
+				}
+			}
+
+			return textLength;
+		}
+
+
+
+		private void finish() throws IOException {
+			if (state != STATE_TEXT) {
+				throw new IOException("Unterminated markup in Data element!");
+			}
+		}
+
+
+
+		private static int resolveReference(final String reference) throws IOException {
+			int ch;
+
+			if (reference.equals("lt")) {
+				ch = '<';
+			} else if (reference.equals("gt")) {
+				ch = '>';
+			} else if (reference.equals("amp")) {
+				ch = '&';
+			} else if (reference.equals("quot")) {
+				ch = '"';
+			} else if (reference.equals("apos")) {
+				ch = '\'';
+			} else {
+				try {
+					if (reference.startsWith("#x")) {
+						ch = Integer.parseInt(reference.substring(2), 16);
+					} else if (reference.startsWith("#")) {
+						ch = Integer.parseInt(reference.substring(1), 10);
+					} else {
+						throw new IOException("Unknown entity reference &" + reference + "; in Data element!");
+					}
+				} catch (final NumberFormatException ex) {
+					throw new IOException("Malformed character reference &" + reference + "; in Data element!");
+				}
+			}
+
+			// encoded data is ASCII
+			if ((ch < 0) || (ch > 0x7F)) {
+				throw new IOException("Unexpected character &" + reference + "; in Data element!");
+			}
+
+			return ch;
+		}
+	}
+}
@@ -8,21 +8,30 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.zip.DataFormatException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
-import org.apache.commons.codec.binary.Base64;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -39,9 +48,13 @@ public class GiftiReader extends DefaultHandler {
 	private Map<String, String> metadata;
 	private MD currentMD;
 	private StringBuffer currentString;
-	private GiftiReaderDataHandler dataHandler;
-	private int leftOverBytes;
-	private final Base64 base64;
+	private final GiftiDataDecoder dataDecoder;
+	private final GiftiByteParser byteParser;
+	private final SAXParser saxParser;
+	private final boolean isPooled;
+	private StringBuilder currentPayload;
+	private Executor executor;
+	private List<FutureTask<Void>> decodeTasks;
 	private boolean isReadingName;
 	private boolean isReadingValue;
 	private boolean isReadingData;
@@ -50,9 +63,24 @@ public class GiftiReader extends DefaultHandler {
 	private boolean isReadingDataSpace;
 	private boolean isReadingLabel;
 	private boolean headerOnly;
+	private boolean lazy;
+	private boolean keepPayloads;
+	private boolean useByteParser;
+	private boolean convertToRowMajorOrder;
+	private int currentDataArrayIndex;
+	private boolean isCompletedByDecodeTask;
+	private final List<GiftiFuture<DataArray>> dataArrayFutures;
+	private int numDataArraysRead;
+	private Throwable readFailure;
+	private volatile GiftiFuture<GIFTI> readFuture;
+	private GiftiVisitor visitor;
+	private boolean isLoadingDataArray;
+	private boolean isDecodingData;
+	private boolean isCapturingData;
+	private boolean hasSkippedData;
+	private DataArrayFilter filter;
 	private Map<Integer, Label> labelTable;
 	private Label currentLabel;
-	private ByteBuffer currentBuffer;
 
 	public static final String TAG_COORDINATESYSTEMTRANSFORMMATRIX = "CoordinateSystemTransformMatrix";
 	public static final String TAG_DATA = "Data";
@@ -69,7 +97,10 @@ public class GiftiReader extends DefaultHandler {
 	public static final String TAG_VALUE = "Value";
 
 	public static final int BUFFER_SIZE = 8192;
-	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private static final long MAX_CAPTURED_BYTES = Integer.MAX_VALUE / 4;
+	private static final String FEATURE_LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+	private static final SAXParserFactory PARSER_FACTORY = createParserFactory();
 
 
 
@@ -80,7 +111,111 @@ public class GiftiReader extends DefaultHandler {
 	 */
 	public GiftiReader(final File file) {
 		this.file = file;
-		base64 = new Base64();
+		dataDecoder = new GiftiDataDecoder();
+		byteParser = null;
+		saxParser = null;
+		isPooled = false;
+		dataArrayFutures = new ArrayList<GiftiFuture<DataArray>>();
+		numDataArraysRead = -1;
+	}
+
+
+
+	/**
+	 * Constructor for a reader that borrows the decoder and parsers of GiftiReaderFactory, which belong to the calling thread.
+	 *
+	 * @param file the file to read
+	 * @param dataDecoder
+	 * @param byteParser
+	 * @param saxParser
+	 */
+	GiftiReader(final File file, final GiftiDataDecoder dataDecoder, final GiftiByteParser byteParser, final SAXParser saxParser) {
+		this.file = file;
+		this.dataDecoder = dataDecoder;
+		this.byteParser = byteParser;
+		this.saxParser = saxParser;
+		isPooled = true;
+		dataArrayFutures = new ArrayList<GiftiFuture<DataArray>>();
+		numDataArraysRead = -1;
+	}
+
+
+
+	/**
+	 * Sets the executor used to decode data arrays. When set, the parser only captures the contents of each Data element, and the
+	 * data arrays are decoded concurrently on the executor. When null (the default), data is decoded on the parsing thread.
+	 *
+	 * @param executor the executor (e.g., a ForkJoinPool), or null
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+
+
+	/**
+	 * Sets whether data arrays are loaded lazily. When true, the reader only records the location of each Data element in the file,
+	 * and each data array is decoded from the file on first access to its buffer. Lazy reads are parsed with GiftiByteParser, which
+	 * skips the contents of the Data elements instead of decoding them.
+	 *
+	 * @param lazy true to load data arrays on first access, false to load them while parsing (the default)
+	 */
+	public void setLazy(final boolean lazy) {
+		this.lazy = lazy;
+	}
+
+
+
+	/**
+	 * Sets whether to record the location of each Data element in the file when data arrays are loaded while parsing, as is always
+	 * done for lazily read data arrays. GiftiWriter copies the encoded data of such data arrays from the file as is, unless they are
+	 * dirty (see DataArray.isDirty()), which makes saving changes to metadata alone much faster. The locations are recorded by
+	 * GiftiByteParser, so such reads always use it.
+	 *
+	 * @param keepPayloads true to record the locations, false otherwise (the default)
+	 */
+	public void setKeepPayloads(final boolean keepPayloads) {
+		this.keepPayloads = keepPayloads;
+	}
+
+
+
+	/**
+	 * Sets a filter that selects the data arrays to load. Data arrays that are not accepted are read as header only, without decoding
+	 * or allocating their data. Filtered reads are parsed with GiftiByteParser, which skips the contents of the Data elements of those
+	 * data arrays instead of parsing them.
+	 *
+	 * @param filter the filter, or null to load all data arrays (the default)
+	 */
+	public void setFilter(final DataArrayFilter filter) {
+		this.filter = filter;
+	}
+
+
+
+	/**
+	 * Sets whether to parse the file with GiftiByteParser instead of a SAX parser. The byte parser handles the GIFTI subset of XML
+	 * (UTF-8 only, no external entities) and passes the contents of Data elements to the decoder without decoding them as
+	 * characters first. Header-only, lazy and filtered reads, and reads that keep payloads, always use the byte parser, which skips the
+	 * contents of Data elements that are not decoded.
+	 *
+	 * @param useByteParser true to use the byte parser, false to use a SAX parser (the default)
+	 */
+	public void setUseByteParser(final boolean useByteParser) {
+		this.useByteParser = useByteParser;
+	}
+
+
+
+	/**
+	 * Sets whether to convert 2-D data arrays stored in ColumnMajorOrder to RowMajorOrder once they are decoded, so that callers can
+	 * index all data arrays the same way. Lazily read data arrays are converted when they are loaded.
+	 *
+	 * @param convertToRowMajorOrder true to convert, false to keep the order of the file (the default)
+	 * @see DataArray#toRowMajorOrder()
+	 */
+	public void setConvertToRowMajorOrder(final boolean convertToRowMajorOrder) {
+		this.convertToRowMajorOrder = convertToRowMajorOrder;
 	}
 
 
@@ -98,25 +233,245 @@ public class GiftiReader extends DefaultHandler {
 
 
 	/**
+	 * Reads the file and passes it to the visitor as it is parsed. No data array is allocated: the data of each one is decoded on the
+	 * parsing thread into a reused buffer of GiftiDataDecoder.CHUNK_SIZE bytes and passed to the visitor chunk by chunk, so files of
+	 * any size are read in constant memory. The executor, filter, lazy and row-major settings do not apply.
+	 *
+	 * @param visitor
+	 * @throws GiftiFormatException
+	 */
+	public void parseGiftiXML(final GiftiVisitor visitor) throws GiftiFormatException {
+		this.visitor = visitor;
+
+		try {
+			parseGiftiXML(false);
+		} finally {
+			this.visitor = null;
+		}
+	}
+
+
+
+	/**
+	 * Reads the file on the specified executor. Use getDataArrayFuture() to work with each data array as soon as it has been decoded,
+	 * while the rest of the file is still being read. If an executor is also set to decode data arrays, it needs threads to spare for
+	 * the decode tasks while the read waits on them.
+	 *
+	 * @param readExecutor the executor that runs the read
+	 * @return the future of the GIFTI object, which completes once the whole file has been read
+	 */
+	public GiftiFuture<GIFTI> parseGiftiXMLAsync(final Executor readExecutor) {
+		final GiftiFuture<GIFTI> future = new GiftiFuture<GIFTI>();
+
+		readExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					future.complete(parseGiftiXML(false, future));
+				} catch (final GiftiFormatException ex) {
+					future.fail(ex);
+				} catch (final RuntimeException ex) {
+					future.fail(ex);
+				} catch (final Error ex) {
+					future.fail(ex);
+					throw ex;
+				}
+			}
+		});
+
+		return future;
+	}
+
+
+
+	/**
+	 * Returns the future of a data array. It can be called before, during or after the read, and refers to the last read started. It
+	 * completes when the data array has been read and, unless it is read lazily or filtered out, decoded, so the data arrays of a file
+	 * typically complete in order while the rest of the file is still being read. It fails if the read fails first, or the file has no
+	 * data array at the index.
+	 *
+	 * @param index
+	 * @return the future
+	 */
+	public synchronized GiftiFuture<DataArray> getDataArrayFuture(final int index) {
+		while (dataArrayFutures.size() <= index) {
+			final GiftiFuture<DataArray> future = new GiftiFuture<DataArray>();
+
+			if (readFailure != null) {
+				future.fail(readFailure);
+			} else if ((numDataArraysRead >= 0) && (dataArrayFutures.size() >= numDataArraysRead)) {
+				future.fail(newMissingDataArrayException(dataArrayFutures.size()));
+			}
+
+			dataArrayFutures.add(future);
+		}
+
+		return dataArrayFutures.get(index);
+	}
+
+
+
+	/**
+	 * Read the file. A header-only read returns the metadata, label table, data array attributes and transforms, without decoding or
+	 * allocating data. The contents of Data elements are skipped with a byte scan rather than parsed as XML text.
 	 *
 	 * @param headerOnly
 	 * @return
 	 * @throws GiftiFormatException
 	 */
 	public GIFTI parseGiftiXML(final boolean headerOnly) throws GiftiFormatException {
+		return parseGiftiXML(headerOnly, null);
+	}
+
+
+
+	/**
+	 * @param headerOnly
+	 * @param future the future of an asynchronous read, which stops the read once cancelled, or null
+	 * @return
+	 * @throws GiftiFormatException
+	 */
+	private GIFTI parseGiftiXML(final boolean headerOnly, final GiftiFuture<GIFTI> future) throws GiftiFormatException {
 		this.headerOnly = headerOnly;
+		readFuture = future;
+		hasSkippedData = false;
+		decodeTasks = new ArrayList<FutureTask<Void>>();
+
+		synchronized (this) {
+			if ((numDataArraysRead >= 0) || (readFailure != null)) {
+				dataArrayFutures.clear(); // the futures of the previous read
+			}
+
+			numDataArraysRead = -1;
+			readFailure = null;
+		}
+
+		try {
+			final GIFTI result = parseFile();
+			finishDataArrayFutures(result.getDataArrays().size(), null);
+			return result;
+		} catch (final GiftiFormatException ex) {
+			finishDataArrayFutures(-1, ex);
+			throw ex;
+		} catch (final RuntimeException ex) {
+			finishDataArrayFutures(-1, ex);
+			throw ex;
+		} finally {
+			readFuture = null;
+		}
+	}
+
+
+
+	private GIFTI parseFile() throws GiftiFormatException {
+		try {
+			if (useByteParser || headerOnly || ((visitor == null) && (lazy || keepPayloads || (filter != null)))) {
+				((byteParser != null) ? byteParser : new GiftiByteParser()).parse(file, this);
+			} else {
+				parseWithSAXParser();
+			}
+
+			awaitDecodeTasks();
+		} finally {
+			cancelDecodeTasks();
+
+			if (!isPooled) {
+				dataDecoder.end();
+			}
+		}
+
+		// skipping ahead past a Data element that is shorter than its dimensions say drops the data arrays it lands beyond
+		if (hasSkippedData && (gifti.getAttributes().get(GIFTI.ATT_NUMBEROFDATAARRAYS) != null)
+				&& (gifti.getNumDataArrays() != gifti.getDataArrays().size())) {
+			throw new GiftiFormatException("Found " + gifti.getDataArrays().size() + " data arrays, expected " + gifti.getNumDataArrays() + "!");
+		}
+
+		return gifti;
+	}
+
+
+
+	// runs on the parsing thread, or on the executor for data arrays that are decoded there
+	private void completeDataArray(final int index, final DataArray dataArray) throws GiftiFormatException {
+		if (convertToRowMajorOrder && !headerOnly && (dataArray.getDimensions() == 2) && !dataArray.isRowMajorOrder()
+				&& (dataArray.isLoaded() || (dataArray.getPayload() != null))) {
+			dataArray.toRowMajorOrder();
+		}
+
+		getDataArrayFuture(index).complete(dataArray);
+	}
+
+
+
+	private void finishDataArrayFutures(final int numDataArrays, final Throwable failure) {
+		final List<GiftiFuture<DataArray>> futures;
+
+		synchronized (this) {
+			numDataArraysRead = numDataArrays;
+			readFailure = failure;
+			futures = new ArrayList<GiftiFuture<DataArray>>(dataArrayFutures);
+		}
+
+		for (int ctr = 0; ctr < futures.size(); ctr++) {
+			futures.get(ctr).fail((failure != null) ? failure : newMissingDataArrayException(ctr)); // ignored if already complete
+		}
+	}
+
+
+
+	private GiftiFormatException newMissingDataArrayException(final int index) {
+		return new GiftiFormatException("File has no data array at index " + index + "!");
+	}
+
+
+
+	/**
+	 * Creates a non-validating SAX parser that does not load the external DTD. The parser factory is shared, since looking it up is
+	 * expensive.
+	 *
+	 * @return the parser
+	 * @throws ParserConfigurationException
+	 * @throws SAXException
+	 */
+	static SAXParser newSAXParser() throws ParserConfigurationException, SAXException {
+		synchronized (PARSER_FACTORY) {
+			return PARSER_FACTORY.newSAXParser();
+		}
+	}
+
+
+
+	private static SAXParserFactory createParserFactory() {
 		final SAXParserFactory factory = SAXParserFactory.newInstance();
 		factory.setValidating(false);
 
-		SAXParser saxParser;
 		try {
-			saxParser = factory.newSAXParser();
-			final InputStream inputStream = new FileInputStream(file);
+			factory.setFeature(FEATURE_LOAD_EXTERNAL_DTD, false);
+		} catch (final ParserConfigurationException ex) {
+			// not supported by this parser, so the DTD will still be loaded
+		} catch (final SAXException ex) {
+			// not supported by this parser, so the DTD will still be loaded
+		}
+
+		return factory;
+	}
+
+
+
+	private void parseWithSAXParser() throws GiftiFormatException {
+		SAXParser parser = saxParser;
+
+		try (InputStream inputStream = new FileInputStream(file)) {
+			if (parser == null) {
+				parser = newSAXParser();
+			}
+
 			final BufferedInputStream bis = new BufferedInputStream(inputStream, BUFFER_SIZE);
 			final Reader reader = new InputStreamReader(bis, "UTF-8");
 			final InputSource is = new InputSource(reader);
 			is.setEncoding("UTF-8");
-			saxParser.parse(is, this);
+			parser.parse(is, this);
 		} catch (final ParserConfigurationException ex) {
 			throw new GiftiFormatException(ex);
 		} catch (final SAXException ex) {
@@ -127,9 +482,11 @@ public class GiftiReader extends DefaultHandler {
 			throw new GiftiFormatException(ex);
 		} catch (final IOException ex) {
 			throw new GiftiFormatException(ex);
+		} finally {
+			if (parser != null) {
+				parser.reset();
+			}
 		}
-
-		return gifti;
 	}
 
 
@@ -138,9 +495,13 @@ public class GiftiReader extends DefaultHandler {
 	 * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
 	 */
 	@Override
-	public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+	public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) throws SAXException {
 		if (qName.equalsIgnoreCase(TAG_GIFTI)) {
 			currentMetadataHolder = gifti = new GIFTI(GiftiUtils.attributesToMap(attributes));
+
+			if (visitor != null) {
+				visitor.onHeader(gifti.getAttributes());
+			}
 		} else if (qName.equalsIgnoreCase(TAG_LABELTABLE)) {
 			labelTable = new TreeMap<Integer, Label>();
 			gifti.setLabelTable(labelTable);
@@ -152,9 +513,30 @@ public class GiftiReader extends DefaultHandler {
 			isReadingLabel = true;
 			currentString = new StringBuffer();
 		} else if (qName.equalsIgnoreCase(TAG_DATAARRAY)) {
-			currentMetadataHolder = currentDataArray = new DataArray(GiftiUtils.attributesToMap(attributes), headerOnly);
-			currentBuffer = currentDataArray.getAsByteBuffer();
+			final GiftiFuture<GIFTI> future = readFuture;
+			if ((future != null) && future.isCancelled()) {
+				throw new SAXException(new GiftiFormatException("Read was cancelled!"));
+			}
+
+			final Map<String, String> atts = GiftiUtils.attributesToMap(attributes);
+			final int index = gifti.getDataArrays().size();
+			currentDataArrayIndex = index;
+			isCompletedByDecodeTask = false;
+			isLoadingDataArray = !headerOnly && (visitor == null) && ((filter == null) || filter.accept(index, atts));
+
+			// external data is mapped rather than decoded into a buffer
+			final boolean isExternal = DataArray.ENCODING_EXTERNALFILEBINARY.equals(atts.get(DataArray.ATT_ENCODING));
+			currentMetadataHolder = currentDataArray = new DataArray(atts, !isLoadingDataArray || lazy || isExternal);
+			isDecodingData = isLoadingDataArray && !lazy && !currentDataArray.isExternalFileBinary();
 			gifti.addDataArray(currentDataArray);
+
+			if (isLoadingDataArray && currentDataArray.isExternalFileBinary()) {
+				try {
+					handleExternalData();
+				} catch (final GiftiFormatException ex) {
+					throw new SAXException(ex);
+				}
+			}
 		} else if (qName.equalsIgnoreCase(TAG_METADATA)) {
 			metadata = new HashMap<String, String>();
 		} else if (qName.equalsIgnoreCase(TAG_MD)) {
@@ -167,9 +549,23 @@ public class GiftiReader extends DefaultHandler {
 			currentString = new StringBuffer();
 		} else if (qName.equalsIgnoreCase(TAG_DATA)) {
 			isReadingData = true;
-			currentString = new StringBuffer();
-			leftOverBytes = 0;
-			dataHandler = new GiftiReaderDataHandler(currentDataArray.isGzipBase64Binary());
+
+			// the text of very large data arrays can't be captured in a StringBuilder, so they are decoded on the parsing thread
+			isCapturingData = isDecodingData && (executor != null) && (currentDataArray.getNumBytes() <= MAX_CAPTURED_BYTES);
+
+			if (visitor != null) {
+				try {
+					startVisitingData();
+				} catch (final GiftiFormatException ex) {
+					throw new SAXException(ex);
+				}
+			} else if (isDecodingData) {
+				if (isCapturingData) {
+					currentPayload = new StringBuilder();
+				} else {
+					dataDecoder.start(currentDataArray);
+				}
+			}
 		} else if (qName.equalsIgnoreCase(TAG_COORDINATESYSTEMTRANSFORMMATRIX)) {
 			currentTransform = new GiftiTransform();
 		} else if (qName.equalsIgnoreCase(TAG_TRANSFORMEDSPACE)) {
@@ -206,55 +602,92 @@ public class GiftiReader extends DefaultHandler {
 		} else if (isReadingDataSpace) {
 			currentString.append(ch, start, length);
 		} else if (isReadingData) {
-			if (!headerOnly) {
-				if (currentDataArray.isAscii()) {
-					currentString.append(ch, start, length);
+			if (isDecodingData) {
+				if (isCapturingData) {
+					currentPayload.append(ch, start, length);
+				} else {
+					try {
+						dataDecoder.decode(ch, start, length);
+					} catch (final DataFormatException ex) {
+						throw new SAXException(ex);
+					}
+				}
+			}
+		}
+	}
 
-					final int spaceIndex = currentString.lastIndexOf(" ");
-					final int tabIndex = currentString.lastIndexOf("\t");
-					final int newlineIndex = currentString.lastIndexOf("\n");
 
-					int index = spaceIndex;
 
-					if (tabIndex > index) {
-						index = tabIndex;
-					}
+	/**
+	 * Receives the raw contents of a Data element from GiftiByteParser.
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @throws SAXException
+	 */
+	void data(final byte[] bytes, final int offset, final int length) throws SAXException {
+		if (isReadingData && isDecodingData) {
+			if (isCapturingData) {
+				for (int ctr = 0; ctr < length; ctr++) {
+					currentPayload.append((char) (bytes[offset + ctr] & 0xFF));
+				}
+			} else {
+				try {
+					dataDecoder.decode(bytes, offset, length);
+				} catch (final DataFormatException ex) {
+					throw new SAXException(ex);
+				}
+			}
+		}
+	}
 
-					if (newlineIndex > index) {
-						index = newlineIndex;
-					}
 
-					final String string = currentString.substring(0, index);
-					currentString.delete(0, index);
-					handleAsciiData(string);
-				} else {
-					String str = new String(ch, start, length);
-					str = str.replaceAll("\\s", "");
 
-					currentString.append(str);
+	/**
+	 * @return true if the contents of the current Data element are not needed
+	 */
+	boolean isSkippingData() {
+		return !isDecodingData;
+	}
 
-					final int actualLength = currentString.length();
-					final int validLength = (actualLength / 4) * 4;
 
-					String string = null;
 
-					if (actualLength != validLength) { // base64 encoded string must be multiple of 4
-						string = currentString.substring(0, validLength);
-						currentString.delete(0, validLength);
-					} else {
-						string = currentString.toString();
-						currentString.delete(0, actualLength);
-					}
+	/**
+	 * Called by GiftiByteParser at the start of a Data element.
+	 *
+	 * @return the number of bytes at the start of the current Data element that can be skipped without scanning them
+	 */
+	long skipData() {
+		long numBytes = 0;
 
-					try {
-						handleBinaryData(string.getBytes("UTF-8"));
-					} catch (final UnsupportedEncodingException ex) {
-						throw new SAXException(ex);
-					} catch (final DataFormatException ex) {
-						throw new SAXException(ex);
-					}
-				}
-			}
+		if (!isSkippingData() || (currentDataArray == null) || currentDataArray.isExternalFileBinary()) {
+			return numBytes;
+		}
+
+		// the shortest possible encoding: unpadded, unwrapped Base64, or single-digit values separated by single spaces
+		if (currentDataArray.isBase64Binary()) {
+			numBytes = ((currentDataArray.getNumBytes() * 4) + 2) / 3;
+		} else if (currentDataArray.isAscii()) {
+			numBytes = Math.max(0, (currentDataArray.getLongDimensionality() * 2) - 1);
+		}
+
+		hasSkippedData |= (numBytes > 0);
+		return numBytes;
+	}
+
+
+
+	/**
+	 * Called by GiftiByteParser at the end of a Data element.
+	 *
+	 * @param offset the byte offset of the contents of the Data element
+	 * @param length the byte length of the contents of the Data element
+	 */
+	void payload(final long offset, final long length) {
+		if (!headerOnly && (lazy || keepPayloads) && (visitor == null) && isLoadingDataArray && (currentDataArray != null)
+				&& !currentDataArray.isExternalFileBinary()) {
+			currentDataArray.setPayload(new GiftiPayload(file, offset, length));
 		}
 	}
 
@@ -270,10 +703,28 @@ public class GiftiReader extends DefaultHandler {
 		} else if (qName.equalsIgnoreCase(TAG_LABEL)) {
 			isReadingLabel = false;
 			currentLabel.setLabel(currentString.toString().trim());
+		} else if (qName.equalsIgnoreCase(TAG_LABELTABLE)) {
+			if (visitor != null) {
+				visitor.onLabelTable(labelTable);
+			}
 		} else if (qName.equalsIgnoreCase(TAG_DATAARRAY)) {
+			if (visitor != null) {
+				visitor.onDataArrayEnd(currentDataArrayIndex, currentDataArray);
+			}
 
+			if (!isCompletedByDecodeTask) {
+				try {
+					completeDataArray(currentDataArrayIndex, currentDataArray);
+				} catch (final GiftiFormatException ex) {
+					throw new SAXException(ex);
+				}
+			}
 		} else if (qName.equalsIgnoreCase(TAG_METADATA)) {
 			currentMetadataHolder.addMetadata(metadata);
+
+			if ((visitor != null) && (currentMetadataHolder == gifti)) {
+				visitor.onMetadata(metadata);
+			}
 		} else if (qName.equalsIgnoreCase(TAG_MD)) {
 			metadata.put(currentMD.name, currentMD.value);
 		} else if (qName.equalsIgnoreCase(TAG_NAME)) {
@@ -284,6 +735,20 @@ public class GiftiReader extends DefaultHandler {
 			currentMD.value = currentString.toString().trim();
 		} else if (qName.equalsIgnoreCase(TAG_DATA)) {
 			isReadingData = false;
+
+			if (isDecodingData) {
+				if (isCapturingData) {
+					submitDecodeTask(currentDataArrayIndex, currentDataArray, currentPayload);
+					currentPayload = null;
+					isCompletedByDecodeTask = true;
+				} else {
+					try {
+						dataDecoder.finish();
+					} catch (final DataFormatException ex) {
+						throw new SAXException(ex);
+					}
+				}
+			}
 		} else if (qName.equalsIgnoreCase(TAG_TRANSFORMEDSPACE)) {
 			isReadingTransformedSpace = false;
 			currentTransform.xformSpace = currentString.toString().trim();
@@ -326,54 +791,171 @@ public class GiftiReader extends DefaultHandler {
 
 
 
-	private void handleBinaryData(final byte[] data) throws DataFormatException {
-		final boolean isByte = currentDataArray.isUnsignedInt8();
-		final boolean isFloat = currentDataArray.isFloat32();
-		final boolean isInt = currentDataArray.isInt32();
-		final boolean swap = !isByte && currentDataArray.isLittleEndian();
-		final int numBytes = isByte ? 1 : 4;
+	private void startVisitingData() throws GiftiFormatException {
+		isDecodingData = visitor.onDataArrayStart(currentDataArrayIndex, currentDataArray);
+		isCapturingData = false;
 
-		dataHandler.setData(base64.decode(data));
+		if (isDecodingData && currentDataArray.isExternalFileBinary()) {
+			isDecodingData = false;
+			visitExternalData();
+		} else if (isDecodingData) {
+			dataDecoder.start(currentDataArray, visitor);
+		}
+	}
 
-		while (dataHandler.hasMoreData()) {
-			final int bytesRead = dataHandler.readData(buffer, leftOverBytes, buffer.length - leftOverBytes) + leftOverBytes;
-			final int validBytes = (bytesRead / numBytes) * numBytes;
 
-			for (int ctr = 0; ctr < validBytes; ctr += numBytes) {
-				if (swap) {
-					if (isFloat) {
-						currentBuffer.putFloat(GiftiUtils.swapFloat(buffer, ctr));
-					} else if (isInt) {
-						currentBuffer.putInt(GiftiUtils.swapInt(buffer, ctr));
-					} else {
-						currentBuffer.put(buffer[ctr]);
-					}
-				} else {
-					if (isFloat) {
-						currentBuffer.putFloat(GiftiUtils.getFloat(buffer, ctr));
-					} else if (isInt) {
-						currentBuffer.putInt(GiftiUtils.getInt(buffer, ctr));
-					} else {
-						currentBuffer.put(buffer[ctr]);
+
+	private void visitExternalData() throws GiftiFormatException {
+		final File externalFile = getExternalFile();
+		final int numBytes = Math.max(1, currentDataArray.getBytesPerUnit());
+		final long offset = currentDataArray.getExternalFileOffsetLong();
+		final long end = offset + currentDataArray.getNumBytes();
+
+		try (RandomAccessFile raf = new RandomAccessFile(externalFile, "r"); FileChannel channel = raf.getChannel()) {
+			if (end > channel.size()) {
+				throw new GiftiFormatException("External data file " + externalFile + " is too short!");
+			}
+
+			final ByteBuffer fileBuffer = ByteBuffer.allocate(GiftiDataDecoder.CHUNK_SIZE);
+			final ByteBuffer chunk = ByteBuffer.allocateDirect(GiftiDataDecoder.CHUNK_SIZE);
+
+			for (long position = offset; position < end; position += fileBuffer.limit()) {
+				fileBuffer.clear();
+				fileBuffer.limit((int) Math.min(fileBuffer.capacity(), end - position));
+
+				while (fileBuffer.hasRemaining()) {
+					if (channel.read(fileBuffer, position + fileBuffer.position()) < 0) {
+						throw new GiftiFormatException("External data file " + externalFile + " is too short!");
 					}
 				}
+
+				fileBuffer.flip();
+				fileBuffer.order(currentDataArray.getByteOrder());
+				chunk.clear();
+				chunk.order(ByteOrder.nativeOrder());
+				GiftiUtils.copyOrdered(fileBuffer, chunk, numBytes);
+				chunk.flip();
+				visitor.onChunk(chunk);
 			}
+		} catch (final IOException ex) {
+			throw new GiftiFormatException(ex);
+		}
+	}
+
 
-			for (int ctr = validBytes; ctr < bytesRead; ctr++) {
-				buffer[ctr - validBytes] = buffer[ctr];
+
+	private File getExternalFile() {
+		final File externalFile = new File(currentDataArray.getExternalFilename());
+		if (!externalFile.isAbsolute()) {
+			return new File(file.getAbsoluteFile().getParentFile(), currentDataArray.getExternalFilename());
+		}
+
+		return externalFile;
+	}
+
+
+
+	private void handleExternalData() throws GiftiFormatException {
+		final File externalFile = getExternalFile();
+		final int numBytes = currentDataArray.getBytesPerUnit();
+		final long offset = currentDataArray.getExternalFileOffsetLong();
+		final long size = currentDataArray.getNumBytes();
+
+		try (RandomAccessFile raf = new RandomAccessFile(externalFile, "r"); FileChannel channel = raf.getChannel()) {
+			if ((offset + size) > channel.size()) {
+				throw new GiftiFormatException("External data file " + externalFile + " is too short!");
+			}
+
+			if (size > Integer.MAX_VALUE) {
+				handleLargeExternalData(channel, offset, size, numBytes);
+				return;
+			}
+
+			final MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, offset, size);
+
+			if ((numBytes <= 1) || (currentDataArray.getByteOrder() == ByteOrder.nativeOrder())) {
+				mapped.order(ByteOrder.nativeOrder());
+				currentDataArray.setBuffer(mapped);
+			} else {
+				final ByteBuffer byteBuffer = ByteBuffer.allocateDirect((int) size);
+				byteBuffer.order(ByteOrder.nativeOrder());
+				mapped.order(currentDataArray.getByteOrder());
+				GiftiUtils.copyOrdered(mapped, byteBuffer, numBytes);
+				currentDataArray.setBuffer(byteBuffer);
+			}
+		} catch (final IOException ex) {
+			throw new GiftiFormatException(ex);
+		}
+	}
+
+
+
+	private void handleLargeExternalData(final FileChannel channel, final long offset, final long size, final int numBytes) throws IOException {
+		final SegmentedByteBuffer mapped = SegmentedByteBuffer.map(channel, offset, size);
+
+		if ((numBytes <= 1) || (currentDataArray.getByteOrder() == ByteOrder.nativeOrder())) {
+			currentDataArray.setSegmentedBuffer(mapped);
+		} else {
+			final SegmentedByteBuffer segmentedBuffer = SegmentedByteBuffer.allocateDirect(size);
+			mapped.order(currentDataArray.getByteOrder());
+
+			for (int ctr = 0; ctr < mapped.getNumSegments(); ctr++) {
+				segmentedBuffer.put(mapped.getSegment(ctr), numBytes);
 			}
 
-			leftOverBytes = bytesRead - validBytes;
+			segmentedBuffer.rewind();
+			currentDataArray.setSegmentedBuffer(segmentedBuffer);
 		}
 	}
 
 
 
-	private void handleAsciiData(final String str) {
-		final StringTokenizer scanner = new StringTokenizer(str);
+	private void submitDecodeTask(final int index, final DataArray dataArray, final StringBuilder payload) {
+		final FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
 
-		while (scanner.hasMoreTokens()) {
-			currentBuffer.putFloat(Float.valueOf(scanner.nextToken()));
+			@Override
+			public Void call() throws DataFormatException, GiftiFormatException {
+				final GiftiDataDecoder decoder = new GiftiDataDecoder();
+
+				try {
+					decoder.start(dataArray);
+					decoder.decode(payload);
+					decoder.finish();
+				} finally {
+					decoder.end();
+				}
+
+				completeDataArray(index, dataArray);
+				return null;
+			}
+		});
+
+		decodeTasks.add(task);
+		executor.execute(task);
+	}
+
+
+
+	private void awaitDecodeTasks() throws GiftiFormatException {
+		try {
+			for (final FutureTask<Void> task : decodeTasks) {
+				task.get();
+			}
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GiftiFormatException(ex);
+		} catch (final ExecutionException ex) {
+			throw new GiftiFormatException(ex.getCause());
 		}
 	}
+
+
+
+	private void cancelDecodeTasks() {
+		for (final FutureTask<Void> task : decodeTasks) {
+			task.cancel(false);
+		}
+
+		decodeTasks.clear();
+	}
 }
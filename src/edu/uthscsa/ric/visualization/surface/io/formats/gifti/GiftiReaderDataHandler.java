@@ -9,6 +9,7 @@ public class GiftiReaderDataHandler {
 
 	private byte[] data;
 	private int position;
+	private int limit;
 	private Inflater inflater;
 
 
@@ -24,14 +25,35 @@ public class GiftiReaderDataHandler {
 
 
 
+	/**
+	 * @param inflater a reset inflater for compressed data, which can be reused across data arrays, or null for uncompressed data
+	 */
+	public GiftiReaderDataHandler(Inflater inflater) {
+		this.inflater = inflater;
+	}
+
+
+
 	/**
 	 * @param data
 	 */
 	public void setData(byte[] data) {
+		setData(data, 0, data.length);
+	}
+
+
+
+	/**
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void setData(byte[] data, int offset, int length) {
 		if (inflater != null) {
-			inflater.setInput(data);
+			inflater.setInput(data, offset, length);
 		} else {
-			position = 0;
+			position = offset;
+			limit = offset + length;
 			this.data = data;
 		}
 	}
@@ -43,9 +65,9 @@ public class GiftiReaderDataHandler {
 	 */
 	public boolean hasMoreData() {
 		if (inflater != null) {
-			return !inflater.needsInput();
+			return !inflater.needsInput() && !inflater.finished();
 		} else {
-			return (position < data.length);
+			return (position < limit);
 		}
 	}
 
@@ -62,7 +84,7 @@ public class GiftiReaderDataHandler {
 		if (inflater != null) {
 			return inflater.inflate(buffer, offset, length);
 		} else {
-			length = Math.min(length, data.length - position);
+			length = Math.min(length, limit - position);
 			System.arraycopy(data, position, buffer, offset, length);
 			position += length;
 			return length;
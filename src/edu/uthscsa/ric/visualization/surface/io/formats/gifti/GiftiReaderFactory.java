@@ -0,0 +1,194 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+
+import org.xml.sax.SAXException;
+
+
+public class GiftiReaderFactory {
+
+	private final ThreadLocal<ReaderResources> resources;
+	private volatile Executor executor;
+	private volatile DataArrayFilter filter;
+	private volatile boolean lazy;
+	private volatile boolean keepPayloads;
+	private volatile boolean useByteParser;
+	private volatile boolean convertToRowMajorOrder;
+
+
+
+	/**
+	 * Constructor. The factory is thread-safe. Each thread that reads through it keeps its own parsers, inflater and buffers, which are
+	 * reused for every file that thread reads.
+	 */
+	public GiftiReaderFactory() {
+		resources = new ThreadLocal<ReaderResources>() {
+
+			@Override
+			protected ReaderResources initialValue() {
+				return new ReaderResources();
+			}
+		};
+	}
+
+
+
+	/**
+	 * @param executor the executor used to decode data arrays, or null to decode them on the reading thread (the default)
+	 * @see GiftiReader#setExecutor(Executor)
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
+
+
+
+	/**
+	 * @param filter the filter, or null to load all data arrays (the default)
+	 * @see GiftiReader#setFilter(DataArrayFilter)
+	 */
+	public void setFilter(final DataArrayFilter filter) {
+		this.filter = filter;
+	}
+
+
+
+	DataArrayFilter getFilter() {
+		return filter;
+	}
+
+
+
+	/**
+	 * @param lazy true to load data arrays on first access, false to load them while parsing (the default)
+	 * @see GiftiReader#setLazy(boolean)
+	 */
+	public void setLazy(final boolean lazy) {
+		this.lazy = lazy;
+	}
+
+
+
+	boolean isLazy() {
+		return lazy;
+	}
+
+
+
+	/**
+	 * @param keepPayloads true to record the location of each Data element when data arrays are loaded while parsing
+	 * @see GiftiReader#setKeepPayloads(boolean)
+	 */
+	public void setKeepPayloads(final boolean keepPayloads) {
+		this.keepPayloads = keepPayloads;
+	}
+
+
+
+	/**
+	 * @param useByteParser true to use the byte parser, false to use a SAX parser (the default)
+	 * @see GiftiReader#setUseByteParser(boolean)
+	 */
+	public void setUseByteParser(final boolean useByteParser) {
+		this.useByteParser = useByteParser;
+	}
+
+
+
+	/**
+	 * @param convertToRowMajorOrder true to convert 2-D data arrays to RowMajorOrder, false to keep the order of the file (the default)
+	 * @see GiftiReader#setConvertToRowMajorOrder(boolean)
+	 */
+	public void setConvertToRowMajorOrder(final boolean convertToRowMajorOrder) {
+		this.convertToRowMajorOrder = convertToRowMajorOrder;
+	}
+
+
+
+	/**
+	 * Reads a file.
+	 *
+	 * @param path
+	 * @return the GIFTI object
+	 * @throws GiftiFormatException
+	 */
+	public GIFTI read(final Path path) throws GiftiFormatException {
+		return read(path.toFile(), false);
+	}
+
+
+
+	/**
+	 * Reads the header of a file, without its data.
+	 *
+	 * @param path
+	 * @return the GIFTI object
+	 * @throws GiftiFormatException
+	 * @see GiftiReader#parseGiftiXML(boolean)
+	 */
+	public GIFTI readHeader(final Path path) throws GiftiFormatException {
+		return read(path.toFile(), true);
+	}
+
+
+
+	private GIFTI read(final File file, final boolean headerOnly) throws GiftiFormatException {
+		final ReaderResources current = resources.get();
+
+		// a nested read on the same thread (e.g., from a filter) can't share the resources of the outer read
+		if (current.inUse) {
+			return configure(new GiftiReader(file)).parseGiftiXML(headerOnly);
+		}
+
+		current.inUse = true;
+
+		try {
+			return configure(current.newReader(file)).parseGiftiXML(headerOnly);
+		} finally {
+			current.inUse = false;
+		}
+	}
+
+
+
+	private GiftiReader configure(final GiftiReader reader) {
+		reader.setExecutor(executor);
+		reader.setFilter(filter);
+		reader.setLazy(lazy);
+		reader.setKeepPayloads(keepPayloads);
+		reader.setUseByteParser(useByteParser);
+		reader.setConvertToRowMajorOrder(convertToRowMajorOrder);
+		return reader;
+	}
+
+
+
+	private static class ReaderResources {
+
+		private final GiftiDataDecoder dataDecoder = new GiftiDataDecoder();
+		private final GiftiByteParser byteParser = new GiftiByteParser();
+		private SAXParser saxParser;
+		private boolean inUse;
+
+
+
+		private GiftiReader newReader(final File file) throws GiftiFormatException {
+			if (saxParser == null) {
+				try {
+					saxParser = GiftiReader.newSAXParser();
+				} catch (final ParserConfigurationException ex) {
+					throw new GiftiFormatException(ex);
+				} catch (final SAXException ex) {
+					throw new GiftiFormatException(ex);
+				}
+			}
+
+			return new GiftiReader(file, dataDecoder, byteParser, saxParser);
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+public class GiftiStreamWriter {
+
+	private final GiftiWriter writer;
+	private final GIFTI gifti;
+	private final File file;
+	private final Map<Integer, DataArray> rereadDataArrays;
+	private File tempFile;
+	private FileOutputStream os;
+	private XMLStreamWriter out;
+	private long headerLength;
+	private int numDataArrays;
+	private boolean isClosed;
+
+	private static final String COUNT_PLACEHOLDER = "0000000000";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gifti the header of the document (attributes, metadata and label table), its data arrays are ignored
+	 * @param file the file to write to
+	 */
+	public GiftiStreamWriter(final GIFTI gifti, final File file) {
+		this(gifti, file, false);
+	}
+
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param gifti the header of the document (attributes, metadata and label table), its data arrays are ignored
+	 * @param file the file to write to
+	 * @param lineBreaks true to allow line breaks when writing encoded binary data, false otherwise
+	 */
+	public GiftiStreamWriter(final GIFTI gifti, final File file, final boolean lineBreaks) {
+		this.gifti = gifti;
+		this.file = file;
+		writer = new GiftiWriter(gifti, file, lineBreaks);
+		rereadDataArrays = new LinkedHashMap<Integer, DataArray>();
+	}
+
+
+
+	/**
+	 * Returns the writer that encodes the data arrays, to set compression, buffer size or executor before open().
+	 *
+	 * @return
+	 */
+	public GiftiWriter getWriter() {
+		return writer;
+	}
+
+
+
+	/**
+	 * Returns the number of data arrays written so far.
+	 *
+	 * @return
+	 */
+	public int getNumDataArrays() {
+		return numDataArrays;
+	}
+
+
+
+	/**
+	 * Writes the start of the document, up to and including the label table. The document is assembled under a temporary name next to
+	 * the file and only replaces the file in close(), so data arrays read from that file can be written to the stream. Data arrays read
+	 * lazily from the file that are not written to the stream can no longer be loaded once it is replaced.
+	 *
+	 * @throws GiftiFormatException
+	 */
+	public void open() throws GiftiFormatException {
+		if (os != null) {
+			throw new GiftiFormatException("Stream has already been opened!");
+		}
+
+		// the count is not known yet, so a fixed-width placeholder is written and patched in close()
+		final Map<String, String> attributes = new LinkedHashMap<String, String>(gifti.getAttributes());
+		attributes.put(GIFTI.ATT_NUMBEROFDATAARRAYS, COUNT_PLACEHOLDER);
+
+		try {
+			tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			os = new FileOutputStream(tempFile);
+			writer.setOutput(tempFile, os.getChannel());
+			out = XMLOutputFactory.newInstance().createXMLStreamWriter(new OutputStreamWriter(os, "UTF-8"));
+			writer.writeHeader(out, attributes);
+			out.flush();
+			headerLength = os.getChannel().position();
+		} catch (final FileNotFoundException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final UnsupportedEncodingException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final IOException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final XMLStreamException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final FactoryConfigurationError ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		}
+	}
+
+
+
+	/**
+	 * Writes a data array. Once this returns, its buffer can be released. The stream no longer references the data array, unless it was
+	 * read from the file that close() replaces, in which case it is kept until then so that its encoded data can be located in the new
+	 * file.
+	 *
+	 * @param dataArray
+	 * @throws GiftiFormatException
+	 */
+	public void writeDataArray(final DataArray dataArray) throws GiftiFormatException {
+		checkOpen();
+
+		try {
+			writer.writeDataArray(out, dataArray);
+
+			// its encoded data moves when the file is replaced
+			if ((dataArray.getPayload() != null) && GiftiWriter.isSameFile(dataArray.getPayload().getFile(), file)) {
+				rereadDataArrays.put(numDataArrays, dataArray);
+			}
+
+			numDataArrays++;
+		} catch (final GiftiFormatException ex) {
+			abort();
+			throw ex;
+		} catch (final IOException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final XMLStreamException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final InterruptedException ex) {
+			abort();
+			Thread.currentThread().interrupt();
+			throw new GiftiFormatException(ex);
+		} catch (final ExecutionException ex) {
+			abort();
+			throw new GiftiFormatException(ex.getCause());
+		}
+	}
+
+
+
+	/**
+	 * Writes the end of the document, sets NumberOfDataArrays to the number of data arrays written and moves the document into place.
+	 *
+	 * @throws GiftiFormatException
+	 */
+	public void close() throws GiftiFormatException {
+		checkOpen();
+
+		try {
+			writer.writeFooter(out);
+			os.close();
+			patchCount();
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			isClosed = true;
+			updatePayloads();
+		} catch (final IOException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		} catch (final XMLStreamException ex) {
+			abort();
+			throw new GiftiFormatException(ex);
+		}
+	}
+
+
+
+	private void checkOpen() throws GiftiFormatException {
+		if (os == null) {
+			throw new GiftiFormatException("Stream has not been opened!");
+		} else if (isClosed) {
+			throw new GiftiFormatException("Stream has already been closed!");
+		}
+	}
+
+
+
+	// overwrites the placeholder with the count, padding the start tag with spaces
+	private void patchCount() throws IOException, GiftiFormatException {
+		final byte[] placeholder = (GIFTI.ATT_NUMBEROFDATAARRAYS + "=\"" + COUNT_PLACEHOLDER + "\"").getBytes(UTF_8);
+		final byte[] count = (GIFTI.ATT_NUMBEROFDATAARRAYS + "=\"" + numDataArrays + "\"").getBytes(UTF_8);
+		final byte[] header = new byte[(int) headerLength];
+
+		final RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+		try {
+			raf.readFully(header);
+
+			final int offset = indexOf(header, placeholder);
+			if (offset < 0) {
+				throw new GiftiFormatException("Could not find " + GIFTI.ATT_NUMBEROFDATAARRAYS + " in the header!");
+			}
+
+			final byte[] patch = new byte[placeholder.length];
+			System.arraycopy(count, 0, patch, 0, count.length);
+			for (int ctr = count.length; ctr < patch.length; ctr++) {
+				patch[ctr] = ' ';
+			}
+
+			raf.seek(offset);
+			raf.write(patch);
+		} finally {
+			raf.close();
+		}
+	}
+
+
+
+	// the data arrays read from the file that was just replaced find their encoded data at new offsets
+	private void updatePayloads() {
+		final List<GiftiPayload> written = writer.getWrittenPayloads();
+
+		for (final Map.Entry<Integer, DataArray> entry : rereadDataArrays.entrySet()) {
+			entry.getValue().setPayload(written.get(entry.getKey()));
+		}
+
+		rereadDataArrays.clear();
+	}
+
+
+
+	private void abort() {
+		final boolean isMoved = isClosed;
+		isClosed = true;
+		rereadDataArrays.clear();
+		writer.abortExternalData();
+
+		if (os != null) {
+			try {
+				os.close();
+			} catch (final IOException ex) {}
+		}
+
+		if ((tempFile != null) && !isMoved) {
+			tempFile.delete();
+		}
+	}
+
+
+
+	private static int indexOf(final byte[] data, final byte[] pattern) {
+		for (int ctr = 0; ctr <= (data.length - pattern.length); ctr++) {
+			int index = 0;
+			while ((index < pattern.length) && (data[ctr + index] == pattern[index])) {
+				index++;
+			}
+
+			if (index == pattern.length) {
+				return ctr;
+			}
+		}
+
+		return -1;
+	}
+}
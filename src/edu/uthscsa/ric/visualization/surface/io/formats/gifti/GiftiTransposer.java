@@ -0,0 +1,182 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public class GiftiTransposer {
+
+	public static final int TILE_SIZE = 64;
+	public static final long PARALLEL_THRESHOLD = 1L << 20;
+	private static final long MIN_TASK_SIZE = 1L << 18;
+
+
+
+	private GiftiTransposer() {}
+
+
+
+	/**
+	 * Transposes a matrix of values, working in square tiles so that both the reads and the writes stay within a few cache lines. Square
+	 * matrices in a writable buffer are transposed in place; otherwise the values are copied into a new buffer of the same byte order.
+	 * Matrices of at least PARALLEL_THRESHOLD values are split by rows across a shared fork/join pool.
+	 *
+	 * @param src the values, laid out as numRows rows of numColumns values
+	 * @param numRows
+	 * @param numColumns
+	 * @param bytesPerUnit the size of each value
+	 * @return the transposed values, laid out as numColumns rows of numRows values (the source buffer if transposed in place)
+	 */
+	public static SegmentedByteBuffer transpose(final SegmentedByteBuffer src, final long numRows, final long numColumns, final int bytesPerUnit) {
+		final boolean inPlace = (numRows == numColumns) && !isReadOnly(src);
+		final SegmentedByteBuffer dst;
+
+		if (inPlace) {
+			dst = src;
+		} else {
+			dst = SegmentedByteBuffer.allocateDirect(src.capacity());
+			dst.order(src.order());
+		}
+
+		final TransposeTask task = new TransposeTask(src, dst, numRows, numColumns, bytesPerUnit, inPlace, 0, numRows);
+
+		if ((numRows * numColumns) >= PARALLEL_THRESHOLD) {
+			PoolHolder.POOL.invoke(task);
+		} else {
+			task.transposeRows();
+		}
+
+		return dst;
+	}
+
+
+
+	private static boolean isReadOnly(final SegmentedByteBuffer buffer) {
+		for (int ctr = 0; ctr < buffer.getNumSegments(); ctr++) {
+			if (buffer.getSegment(ctr).isReadOnly()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+
+	private static class PoolHolder {
+
+		// created on first use, its worker threads are daemon threads
+		private static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+
+
+
+	private static class TransposeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SegmentedByteBuffer src;
+		private final SegmentedByteBuffer dst;
+		private final long numRows;
+		private final long numColumns;
+		private final int bytesPerUnit;
+		private final boolean inPlace;
+		private final long rowStart;
+		private final long rowEnd;
+
+
+
+		private TransposeTask(final SegmentedByteBuffer src, final SegmentedByteBuffer dst, final long numRows, final long numColumns,
+				final int bytesPerUnit, final boolean inPlace, final long rowStart, final long rowEnd) {
+			this.src = src;
+			this.dst = dst;
+			this.numRows = numRows;
+			this.numColumns = numColumns;
+			this.bytesPerUnit = bytesPerUnit;
+			this.inPlace = inPlace;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+		}
+
+
+
+		@Override
+		protected void compute() {
+			final long numTiles = (rowEnd - rowStart + TILE_SIZE - 1) / TILE_SIZE;
+
+			if ((numTiles < 2) || (((rowEnd - rowStart) * numColumns) <= MIN_TASK_SIZE)) {
+				transposeRows();
+			} else {
+				final long rowMid = rowStart + ((numTiles / 2) * TILE_SIZE);
+				invokeAll(new TransposeTask(src, dst, numRows, numColumns, bytesPerUnit, inPlace, rowStart, rowMid), new TransposeTask(src,
+						dst, numRows, numColumns, bytesPerUnit, inPlace, rowMid, rowEnd));
+			}
+		}
+
+
+
+		private void transposeRows() {
+			for (long tileRow = rowStart; tileRow < rowEnd; tileRow += TILE_SIZE) {
+				final long tileRowEnd = Math.min(tileRow + TILE_SIZE, rowEnd);
+
+				// in place, each pair above the diagonal is swapped by the task that owns its row
+				for (long tileColumn = inPlace ? tileRow : 0; tileColumn < numColumns; tileColumn += TILE_SIZE) {
+					final long tileColumnEnd = Math.min(tileColumn + TILE_SIZE, numColumns);
+
+					for (long row = tileRow; row < tileRowEnd; row++) {
+						for (long column = inPlace ? Math.max(tileColumn, row + 1) : tileColumn; column < tileColumnEnd; column++) {
+							final long srcIndex = ((row * numColumns) + column) * bytesPerUnit;
+							final long dstIndex = ((column * numRows) + row) * bytesPerUnit;
+
+							if (inPlace) {
+								swapUnit(srcIndex, dstIndex);
+							} else {
+								copyUnit(srcIndex, dstIndex);
+							}
+						}
+					}
+				}
+			}
+		}
+
+
+
+		private void copyUnit(final long srcIndex, final long dstIndex) {
+			if (bytesPerUnit == 4) {
+				dst.putInt(dstIndex, src.getInt(srcIndex));
+			} else if (bytesPerUnit == 2) {
+				dst.putShort(dstIndex, src.getShort(srcIndex));
+			} else if (bytesPerUnit == 8) {
+				dst.putLong(dstIndex, src.getLong(srcIndex));
+			} else {
+				for (int ctr = 0; ctr < bytesPerUnit; ctr++) {
+					dst.put(dstIndex + ctr, src.get(srcIndex + ctr));
+				}
+			}
+		}
+
+
+
+		private void swapUnit(final long index1, final long index2) {
+			if (bytesPerUnit == 4) {
+				final int value = src.getInt(index1);
+				src.putInt(index1, src.getInt(index2));
+				src.putInt(index2, value);
+			} else if (bytesPerUnit == 2) {
+				final short value = src.getShort(index1);
+				src.putShort(index1, src.getShort(index2));
+				src.putShort(index2, value);
+			} else if (bytesPerUnit == 8) {
+				final long value = src.getLong(index1);
+				src.putLong(index1, src.getLong(index2));
+				src.putLong(index2, value);
+			} else {
+				for (int ctr = 0; ctr < bytesPerUnit; ctr++) {
+					final byte value = src.get(index1 + ctr);
+					src.put(index1 + ctr, src.get(index2 + ctr));
+					src.put(index2 + ctr, value);
+				}
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 
 package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -70,6 +71,44 @@ public class GiftiUtils {
 
 
 
+	/**
+	 * Combines the Adler-32 checksums of two consecutive sequences of bytes, as adler32_combine() of zlib does.
+	 *
+	 * @param adler1 the checksum of the first sequence
+	 * @param adler2 the checksum of the second sequence
+	 * @param length2 the length of the second sequence
+	 * @return the checksum of both sequences
+	 */
+	public static long combineAdler32(final long adler1, final long adler2, final long length2) {
+		final long base = 65521;
+		final long remainder = length2 % base;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (remainder * sum1) % base;
+
+		sum1 += (adler2 & 0xFFFF) + base - 1;
+		sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - remainder;
+
+		if (sum1 >= base) {
+			sum1 -= base;
+		}
+
+		if (sum1 >= base) {
+			sum1 -= base;
+		}
+
+		if (sum2 >= (base << 1)) {
+			sum2 -= (base << 1);
+		}
+
+		if (sum2 >= base) {
+			sum2 -= base;
+		}
+
+		return sum1 | (sum2 << 16);
+	}
+
+
+
 	/**
 	 * @param atts
 	 * @return
@@ -148,6 +187,37 @@ public class GiftiUtils {
 
 
 
+	/**
+	 * Copies the remaining bytes of the source buffer into the destination buffer, converting each unit from the source byte order to
+	 * the destination byte order using bulk buffer views.
+	 *
+	 * @param src
+	 * @param dst
+	 * @param bytesPerUnit
+	 */
+	public static void copyOrdered(final ByteBuffer src, final ByteBuffer dst, final int bytesPerUnit) {
+		final boolean swap = (src.order() != dst.order());
+		final int length = src.remaining();
+		final int srcPosition = src.position();
+		final int dstPosition = dst.position();
+
+		if (swap && (bytesPerUnit == 2)) {
+			dst.asShortBuffer().put(src.asShortBuffer());
+		} else if (swap && (bytesPerUnit == 4)) {
+			dst.asIntBuffer().put(src.asIntBuffer());
+		} else if (swap && (bytesPerUnit == 8)) {
+			dst.asLongBuffer().put(src.asLongBuffer());
+		} else {
+			dst.put(src);
+			return;
+		}
+
+		src.position(srcPosition + length);
+		dst.position(dstPosition + length);
+	}
+
+
+
 	/**
 	 * @param aMatParams
 	 * @param abs
@@ -0,0 +1,56 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+
+public interface GiftiVisitor {
+
+	/**
+	 * @param attributes the attributes of the GIFTI element
+	 */
+	public void onHeader(Map<String, String> attributes);
+
+
+
+	/**
+	 * @param metadata the metadata of the file (the metadata of each data array is part of its header)
+	 */
+	public void onMetadata(Map<String, String> metadata);
+
+
+
+	/**
+	 * @param labelTable the label table, by key
+	 */
+	public void onLabelTable(Map<Integer, Label> labelTable);
+
+
+
+	/**
+	 * Called when the data of a data array starts, once its attributes, metadata and transforms have been read.
+	 *
+	 * @param index the index of the data array in the file
+	 * @param dataArray the header of the data array, which holds no data
+	 * @return true to receive the data of the data array in chunks, false to skip it
+	 */
+	public boolean onDataArrayStart(int index, DataArray dataArray);
+
+
+
+	/**
+	 * Receives the next part of the data of a data array, as whole values in native byte order. The buffer is reused for the next
+	 * chunk, so it is only valid until this method returns.
+	 *
+	 * @param chunk the values between its position and limit
+	 */
+	public void onChunk(ByteBuffer chunk);
+
+
+
+	/**
+	 * @param index the index of the data array in the file
+	 * @param dataArray the header of the data array
+	 */
+	public void onDataArrayEnd(int index, DataArray dataArray);
+}
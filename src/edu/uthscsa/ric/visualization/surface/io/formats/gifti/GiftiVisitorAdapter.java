@@ -0,0 +1,41 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+
+public abstract class GiftiVisitorAdapter implements GiftiVisitor {
+
+	@Override
+	public void onHeader(final Map<String, String> attributes) {}
+
+
+
+	@Override
+	public void onMetadata(final Map<String, String> metadata) {}
+
+
+
+	@Override
+	public void onLabelTable(final Map<Integer, Label> labelTable) {}
+
+
+
+	/**
+	 * @return true, to receive the data of every data array
+	 */
+	@Override
+	public boolean onDataArrayStart(final int index, final DataArray dataArray) {
+		return true;
+	}
+
+
+
+	@Override
+	public void onChunk(final ByteBuffer chunk) {}
+
+
+
+	@Override
+	public void onDataArrayEnd(final int index, final DataArray dataArray) {}
+}
@@ -1,15 +1,31 @@
 
 package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
 
+import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Adler32;
 import java.util.zip.Deflater;
 
 import javax.xml.stream.FactoryConfigurationError;
@@ -22,12 +38,31 @@ public class GiftiWriter {
 
 	private final GIFTI gifti;
 	private final File file;
+	private File outputFile;
+	private FileChannel outputChannel;
+	private final List<GiftiPayload> writtenPayloads = new ArrayList<GiftiPayload>();
 	private int level;
 	private final boolean lineBreaks;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private int compressionStrategy = Deflater.DEFAULT_STRATEGY;
+	private int bufferSize = BUFFER_SIZE;
+	private Executor executor;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private ExternalDataFile externalData;
 
 	public static final int BUFFER_SIZE = 8192;
-	private final byte[] buffer = new byte[BUFFER_SIZE];
+	public static final int MIN_BUFFER_SIZE = 64;
+	public static final int PARALLEL_BLOCK_SIZE = 1 << 17;
+	public static final long PARALLEL_DEFLATE_THRESHOLD = 1L << 20;
+	public static final int MAX_PENDING_BLOCKS = 16;
+	public static final long DEFAULT_MEMORY_BUDGET = 1L << 28;
+	private static final int ASCII_CHARS_PER_VALUE = 16;
+	private static final int MAX_PAYLOAD_LENGTH = Integer.MAX_VALUE - 8;
+	private static final int DICTIONARY_SIZE = 1 << 15;
+	private static final int DATA_END_TAG_LENGTH = ("</" + GiftiReader.TAG_DATA + ">\n").length();
 	public static final String INDENT = "   ";
+	public static final String FILE_EXTENSION = ".gii";
+	public static final String EXTERNAL_FILE_EXTENSION = ".dat";
 
 
 
@@ -54,108 +89,374 @@ public class GiftiWriter {
 		this.gifti = gifti;
 		this.file = file;
 		this.lineBreaks = lineBreaks;
+		outputFile = file;
 	}
 
 
 
 	/**
-	 * Write the file.
+	 * Sets the deflate level of GZipBase64Binary data arrays. Deflater.BEST_SPEED writes about twice as fast as the default level,
+	 * at the cost of a somewhat larger file.
 	 *
-	 * @throws GiftiFormatException
+	 * @param compressionLevel Deflater.DEFAULT_COMPRESSION (the default), or 0 (Deflater.NO_COMPRESSION) to 9 (Deflater.BEST_COMPRESSION)
 	 */
-	public void writeGiftiXML() throws GiftiFormatException {
-		FileOutputStream os = null;
-		try {
+	public void setCompressionLevel(final int compressionLevel) {
+		if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
 
-			os = new FileOutputStream(file);
+		this.compressionLevel = compressionLevel;
+	}
 
-			final XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(new OutputStreamWriter(os, "UTF-8"));
-			writeStartDocument(out);
-			writeDTD(out, GIFTI.DOC_TYPE);
 
-			writeStartElement(out, GiftiReader.TAG_GIFTI, gifti.getAttributes(), false);
 
-			writeMetadata(out, gifti.getMetadata());
+	/**
+	 * Sets the deflate strategy of GZipBase64Binary data arrays. Deflater.FILTERED favors Huffman coding over string matching for data
+	 * with many small, noisy values; Deflater.HUFFMAN_ONLY skips string matching altogether and is the fastest.
+	 *
+	 * @param compressionStrategy Deflater.DEFAULT_STRATEGY (the default), Deflater.FILTERED or Deflater.HUFFMAN_ONLY
+	 */
+	public void setCompressionStrategy(final int compressionStrategy) {
+		if ((compressionStrategy != Deflater.DEFAULT_STRATEGY) && (compressionStrategy != Deflater.FILTERED)
+				&& (compressionStrategy != Deflater.HUFFMAN_ONLY)) {
+			throw new IllegalArgumentException("Invalid compression strategy: " + compressionStrategy);
+		}
 
-			final Map<Integer, Label> labelTable = gifti.getLabelTable();
-			if (labelTable != null) {
-				writeStartElement(out, GiftiReader.TAG_LABELTABLE, null, false);
+		this.compressionStrategy = compressionStrategy;
+	}
 
-				for (final Map.Entry<Integer, Label> entry : labelTable.entrySet()) {
-					final Integer key = entry.getKey();
-					final Label label = entry.getValue();
-					final Map<String, String> labelAtts = label.getAttributes();
-					labelAtts.put(Label.ATT_KEY, String.valueOf(key));
-					writeStartElement(out, GiftiReader.TAG_LABEL, labelAtts, Label.ORDER, true);
-					writeCData(out, label.getLabel());
-					writeEndElement(out, true); // GiftiReader.TAG_LABEL
-				}
 
-				writeEndElement(out, false); // GiftiReader.TAG_LABELTABLE
-			} else {
-				writeEmptyElement(out, GiftiReader.TAG_LABELTABLE);
-			}
 
-			if (gifti.getNumDataArrays() > 0) {
-				final Iterator<DataArray> it = gifti.getDataArrays().iterator();
-				while (it.hasNext()) {
-					final DataArray da = it.next();
-					writeStartElement(out, GiftiReader.TAG_DATAARRAY, da.getAttributes(), false);
-					writeMetadata(out, da.getMetadata());
+	/**
+	 * Sets the size of the blocks in which data is serialized, encoded and written.
+	 *
+	 * @param bufferSize the size in bytes, at least MIN_BUFFER_SIZE (BUFFER_SIZE by default)
+	 */
+	public void setBufferSize(final int bufferSize) {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + " bytes!");
+		}
+
+		this.bufferSize = bufferSize;
+	}
 
-					final Vector<GiftiTransform> xforms = da.getTransforms();
 
-					if ((xforms != null) && (xforms.size() > 0)) {
-						final Iterator<GiftiTransform> itx = xforms.iterator();
-						while (itx.hasNext()) {
-							final GiftiTransform xform = itx.next();
-							writeStartElement(out, GiftiReader.TAG_COORDINATESYSTEMTRANSFORMMATRIX, null, false);
 
-							writeStartElement(out, GiftiReader.TAG_DATASPACE, null, true);
-							writeCData(out, xform.dataSpace);
-							writeEndElement(out, true); // GiftiReader.TAG_DATASPACE
+	/**
+	 * Sets the executor used to encode data arrays. When set, the Data elements of a file with several data arrays are encoded
+	 * concurrently, ahead of the writing thread, and written in order as each one is reached (see setMemoryBudget()). Data arrays
+	 * that are encoded on the writing thread, and deflate GZipBase64Binary data arrays of at least PARALLEL_DEFLATE_THRESHOLD bytes
+	 * in parallel: the data is split into blocks of PARALLEL_BLOCK_SIZE bytes, each deflated on the executor with the last 32 KB of
+	 * the previous block as its dictionary, and the blocks are joined into a single zlib stream that any reader can inflate. At most
+	 * MAX_PENDING_BLOCKS blocks are in flight at a time. When null (the default), all data is encoded on the writing thread.
+	 *
+	 * @param executor the executor (e.g., a ForkJoinPool), or null
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = executor;
+	}
 
-							writeStartElement(out, GiftiReader.TAG_TRANSFORMEDSPACE, null, true);
-							writeCData(out, xform.xformSpace);
-							writeEndElement(out, true); // GiftiReader.TAG_TRANSFORMEDSPACE
 
-							writeStartElement(out, GiftiReader.TAG_MATRIXDATA, null, true);
-							writeCharacters(out, xform.getXformAsString());
-							writeEndElement(out, true); // GiftiReader.TAG_MATRIXDATA
 
-							writeEndElement(out, false);// GiftiReader.TAG_COORDINATESYSTEMTRANSFORMMATRIX
-						}
-					}
+	/**
+	 * Sets the memory available to hold the encoded contents of Data elements that are encoded ahead of the writing thread. A data
+	 * array is only encoded ahead once the estimated size of its encoded contents fits in what is left of the budget; a data array
+	 * whose estimate exceeds the whole budget is encoded on the writing thread when it is reached.
+	 *
+	 * @param memoryBudget the budget in bytes (DEFAULT_MEMORY_BUDGET by default)
+	 */
+	public void setMemoryBudget(final long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+
 
-					writeStartElement(out, GiftiReader.TAG_DATA, null, false);
-					writeData(out, da);
-					writeEndElement(out, false); // GiftiReader.TAG_DATA
+	/**
+	 * Write the file. The raw bytes of ExternalFileBinary data arrays are written, in order, to a single external file next to the
+	 * file, named after it with the extension EXTERNAL_FILE_EXTENSION, and their ExternalFileName and ExternalFileOffset attributes
+	 * are set to match. The external file is assembled under a temporary name and only replaces an existing file of the same name
+	 * once the write succeeds, so it is safe to write data arrays that are mapped from that existing file.
+	 * <p>
+	 * The encoded data of data arrays that were read with their payload and are not dirty (see DataArray.isDirty()) is copied from the
+	 * file they were read from as is. When that file is the one being written, the file is likewise assembled under a temporary name,
+	 * and those data arrays are pointed at their encoded data in the new file.
+	 *
+	 * @throws GiftiFormatException
+	 */
+	public void writeGiftiXML() throws GiftiFormatException {
+		FileOutputStream os = null;
+		PayloadQueue payloads = null;
+		try {
+			if (hasPayloadIn(file)) {
+				outputFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			}
+
+			os = new FileOutputStream(outputFile);
+			outputChannel = os.getChannel();
+
+			final XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(new OutputStreamWriter(os, "UTF-8"));
+			writeHeader(out, gifti.getAttributes());
 
-					writeEndElement(out, true); // GiftiReader.TAG_DATAARRAY
+			if (gifti.getNumDataArrays() > 0) {
+				if ((executor != null) && (gifti.getNumDataArrays() > 1)) {
+					payloads = new PayloadQueue(gifti.getDataArrays());
+				}
+
+				final Iterator<DataArray> it = gifti.getDataArrays().iterator();
+				int index = 0;
+				while (it.hasNext()) {
+					writeDataArray(out, it.next(), payloads, index);
+					index++;
 				}
 			}
 
-			writeEndElement(out, false); // GiftiReader.TAG_GIFTI
+			writeFooter(out);
 
-			out.writeEndDocument();
-			out.close();
+			if (outputFile != file) {
+				os.close();
+				Files.move(outputFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				outputFile = file;
+				updatePayloads();
+			}
 		} catch (final FileNotFoundException ex) {
 			throw new GiftiFormatException(ex);
 		} catch (final UnsupportedEncodingException ex) {
 			throw new GiftiFormatException(ex);
+		} catch (final IOException ex) {
+			throw new GiftiFormatException(ex);
 		} catch (final XMLStreamException ex) {
 			throw new GiftiFormatException(ex);
 		} catch (final FactoryConfigurationError ex) {
 			throw new GiftiFormatException(ex);
+		} catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GiftiFormatException(ex);
+		} catch (final ExecutionException ex) {
+			throw new GiftiFormatException(ex.getCause());
 		} finally {
+			if (payloads != null) {
+				payloads.cancel();
+			}
+
+			abortExternalData();
+
 			try {
 				os.close();
 			} catch (final Exception ex) {}
+
+			if (outputFile != file) {
+				outputFile.delete();
+				outputFile = file;
+			}
+
+			outputChannel = null;
 		}
 	}
 
 
 
+	/**
+	 * Writes the start of the document, up to and including the label table.
+	 *
+	 * @param out
+	 * @param attributes the attributes of the GIFTI element
+	 * @throws XMLStreamException
+	 */
+	void writeHeader(final XMLStreamWriter out, final Map<String, String> attributes) throws XMLStreamException {
+		level = 0;
+		externalData = null;
+		writtenPayloads.clear();
+
+		writeStartDocument(out);
+		writeDTD(out, GIFTI.DOC_TYPE);
+
+		writeStartElement(out, GiftiReader.TAG_GIFTI, attributes, false);
+
+		writeMetadata(out, gifti.getMetadata());
+
+		final Map<Integer, Label> labelTable = gifti.getLabelTable();
+		if (labelTable != null) {
+			writeStartElement(out, GiftiReader.TAG_LABELTABLE, null, false);
+
+			for (final Map.Entry<Integer, Label> entry : labelTable.entrySet()) {
+				final Integer key = entry.getKey();
+				final Label label = entry.getValue();
+				final Map<String, String> labelAtts = label.getAttributes();
+				labelAtts.put(Label.ATT_KEY, String.valueOf(key));
+				writeStartElement(out, GiftiReader.TAG_LABEL, labelAtts, Label.ORDER, true);
+				writeCData(out, label.getLabel());
+				writeEndElement(out, true); // GiftiReader.TAG_LABEL
+			}
+
+			writeEndElement(out, false); // GiftiReader.TAG_LABELTABLE
+		} else {
+			writeEmptyElement(out, GiftiReader.TAG_LABELTABLE);
+		}
+	}
+
+
+
+	/**
+	 * Writes a data array, encoding its data on the writing thread.
+	 *
+	 * @param out
+	 * @param da
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @throws GiftiFormatException if the external data written does not match the size of the data array
+	 */
+	void writeDataArray(final XMLStreamWriter out, final DataArray da) throws XMLStreamException, IOException, InterruptedException,
+			ExecutionException, GiftiFormatException {
+		writeDataArray(out, da, null, 0);
+	}
+
+
+
+	/**
+	 * Writes the end of the document and moves the external file, if any, into place.
+	 *
+	 * @param out
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	void writeFooter(final XMLStreamWriter out) throws XMLStreamException, IOException {
+		writeEndElement(out, false); // GiftiReader.TAG_GIFTI
+
+		out.writeEndDocument();
+		out.close();
+
+		if (externalData != null) {
+			externalData.commit();
+		}
+	}
+
+
+
+	/**
+	 * Sets the file the document is actually written to, such as a temporary file that replaces the file once complete. Encoded data
+	 * is never copied from this file.
+	 *
+	 * @param outputFile
+	 * @param outputChannel the channel of the stream the document is written to, which gives the offsets of the Data elements written
+	 */
+	void setOutput(final File outputFile, final FileChannel outputChannel) {
+		this.outputFile = outputFile;
+		this.outputChannel = outputChannel;
+	}
+
+
+
+	/**
+	 * @return the location of the encoded data of each data array written since the header, in the file once it is in place, or null
+	 *         for external data
+	 */
+	List<GiftiPayload> getWrittenPayloads() {
+		return writtenPayloads;
+	}
+
+
+
+	/**
+	 * Discards the external file of an unfinished write, if any.
+	 */
+	void abortExternalData() {
+		if (externalData != null) {
+			externalData.close();
+			externalData = null;
+		}
+	}
+
+
+
+	private void writeDataArray(final XMLStreamWriter out, final DataArray da, final PayloadQueue payloads, final int index)
+			throws XMLStreamException, IOException, InterruptedException, ExecutionException, GiftiFormatException {
+		if (da.isExternalFileBinary()) {
+			if (externalData == null) {
+				externalData = new ExternalDataFile(getExternalFile());
+			}
+
+			externalData.prepare(da);
+		}
+
+		writeStartElement(out, GiftiReader.TAG_DATAARRAY, da.getAttributes(), false);
+		writeMetadata(out, da.getMetadata());
+
+		final Vector<GiftiTransform> xforms = da.getTransforms();
+
+		if ((xforms != null) && (xforms.size() > 0)) {
+			final Iterator<GiftiTransform> itx = xforms.iterator();
+			while (itx.hasNext()) {
+				final GiftiTransform xform = itx.next();
+				writeStartElement(out, GiftiReader.TAG_COORDINATESYSTEMTRANSFORMMATRIX, null, false);
+
+				writeStartElement(out, GiftiReader.TAG_DATASPACE, null, true);
+				writeCData(out, xform.dataSpace);
+				writeEndElement(out, true); // GiftiReader.TAG_DATASPACE
+
+				writeStartElement(out, GiftiReader.TAG_TRANSFORMEDSPACE, null, true);
+				writeCData(out, xform.xformSpace);
+				writeEndElement(out, true); // GiftiReader.TAG_TRANSFORMEDSPACE
+
+				writeStartElement(out, GiftiReader.TAG_MATRIXDATA, null, true);
+				writeCharacters(out, xform.getXformAsString());
+				writeEndElement(out, true); // GiftiReader.TAG_MATRIXDATA
+
+				writeEndElement(out, false);// GiftiReader.TAG_COORDINATESYSTEMTRANSFORMMATRIX
+			}
+		}
+
+		if (da.isExternalFileBinary()) {
+			writeStartElement(out, GiftiReader.TAG_DATA, null, true);
+			externalData.write(da);
+			writeEndElement(out, true); // GiftiReader.TAG_DATA
+			writtenPayloads.add(null);
+		} else if (isCopyingPayload(da)) {
+			// the payload already holds the whitespace around the data
+			writeStartElement(out, GiftiReader.TAG_DATA, null, true);
+			final long offset = getOutputPosition(out);
+			da.getPayload().copyTo(out, bufferSize);
+			writeEndElement(out, true); // GiftiReader.TAG_DATA
+			addWrittenPayload(out, offset);
+		} else {
+			writeStartElement(out, GiftiReader.TAG_DATA, null, false);
+			final long offset = getOutputPosition(out);
+			if (payloads != null) {
+				payloads.write(out, index);
+			} else {
+				writeData(out, da, executor);
+			}
+			writeEndElement(out, false); // GiftiReader.TAG_DATA
+			addWrittenPayload(out, offset);
+		}
+
+		writeEndElement(out, true); // GiftiReader.TAG_DATAARRAY
+	}
+
+
+
+	// the Data end tag and the line break after it were just written
+	private void addWrittenPayload(final XMLStreamWriter out, final long offset) throws XMLStreamException, IOException {
+		final long end = getOutputPosition(out) - DATA_END_TAG_LENGTH;
+		writtenPayloads.add((outputChannel != null) ? new GiftiPayload(file, offset, end - offset) : null);
+	}
+
+
+
+	// a start tag is only closed once the content after it is written, so it is closed before flushing
+	private long getOutputPosition(final XMLStreamWriter out) throws XMLStreamException, IOException {
+		if (outputChannel == null) {
+			return 0;
+		}
+
+		out.writeCharacters("");
+		out.flush();
+		return outputChannel.position();
+	}
+
+
+
 	private void writeStartElement(final XMLStreamWriter out, final String tag, final boolean containsData) throws XMLStreamException {
 		writeStartElement(out, tag, null, null, containsData);
 	}
@@ -283,127 +584,565 @@ public class GiftiWriter {
 
 
 
-	private void writeData(final XMLStreamWriter out, final DataArray dataArray) throws XMLStreamException, UnsupportedEncodingException {
+	// deflateExecutor is null on the executor itself, where waiting on blocks queued behind the current task could deadlock
+	private void writeData(final XMLStreamWriter out, final DataArray dataArray, final Executor deflateExecutor) throws XMLStreamException,
+			InterruptedException, ExecutionException {
+		if (dataArray.isAscii()) {
+			writeAsciiData(out, dataArray);
+		} else {
+			writeBinaryData(out, dataArray, deflateExecutor);
+		}
+
+		if (lineBreaks) {
+			out.writeCharacters("\r\n");
+		}
+	}
+
+
+
+	private void writeAsciiData(final XMLStreamWriter out, final DataArray dataArray) throws XMLStreamException {
 		final GiftiWriterDataHandler it = new GiftiWriterDataHandler(dataArray);
-		final Deflater deflater = new Deflater();
-		int leftover = 0;
-		int bufferMark = 0;
-		String currentString = "";
+		final GiftiAsciiEncoder encoder = new GiftiAsciiEncoder();
+		final char[] chars = new char[bufferSize];
+		int charMark = 0;
 
-		final int numValues = dataArray.getNumValues();
-		int valueCt = 0;
+		// one row per line, as long as rows are contiguous
+		final long valuesPerLine = ((dataArray.getDimensions() == 2) && dataArray.isRowMajorOrder()) ? dataArray.getNumElements(1) : 1;
+		long lineCount = 0;
 
-		final byte[] deflatedBuffer = new byte[BUFFER_SIZE];
+		encoder.start(dataArray);
 
 		while (it.hasNext()) {
-			final int dataValue = it.next();
+			if (charMark > (chars.length - GiftiAsciiEncoder.MAX_VALUE_LENGTH - 1)) {
+				out.writeCharacters(chars, 0, charMark);
+				charMark = 0;
+			}
 
-			valueCt++;
-			final boolean lastValue = (valueCt == numValues);
+			charMark = encoder.encode(it.nextLong(), chars, charMark);
 
-			if (dataArray.isLittleEndian()) {
-				buffer[bufferMark++] = (byte) ((dataValue >> 0) & 0xFF);
-				buffer[bufferMark++] = (byte) ((dataValue >> 8) & 0xFF);
-				buffer[bufferMark++] = (byte) ((dataValue >> 16) & 0xFF);
-				buffer[bufferMark++] = (byte) ((dataValue >> 24) & 0xFF);
+			if (++lineCount == valuesPerLine) {
+				chars[charMark++] = '\n';
+				lineCount = 0;
 			} else {
-				buffer[bufferMark++] = (byte) ((dataValue >> 24) & 0xFF);
-				buffer[bufferMark++] = (byte) ((dataValue >> 16) & 0xFF);
-				buffer[bufferMark++] = (byte) ((dataValue >> 8) & 0xFF);
-				buffer[bufferMark++] = (byte) ((dataValue >> 0) & 0xFF);
+				chars[charMark++] = ' ';
 			}
+		}
 
-			if (bufferMark == BUFFER_SIZE) {
-				deflater.setInput(buffer);
+		if (charMark > 0) {
+			out.writeCharacters(chars, 0, charMark);
+		}
+	}
 
-				if (lastValue) {
-					deflater.finish();
-				}
 
-				while ((!lastValue && !deflater.needsInput()) || (lastValue && !deflater.finished())) {
-					final int numBytesDeflated = deflater.deflate(deflatedBuffer, leftover, deflatedBuffer.length - leftover) + leftover;
 
-					if (numBytesDeflated > 0) {
-						final int numValid = (numBytesDeflated / 3) * 3;
-						leftover = numBytesDeflated % 3;
+	private void writeBinaryData(final XMLStreamWriter out, final DataArray dataArray, final Executor deflateExecutor)
+			throws XMLStreamException, InterruptedException, ExecutionException {
+		final GiftiWriterDataHandler it = new GiftiWriterDataHandler(dataArray);
+		final GiftiBase64Encoder base64 = new GiftiBase64Encoder(out, lineBreaks, bufferSize);
+		final int numBytes = it.getBytesPerUnit();
+		final boolean parallel = !dataArray.isBase64Binary() && (deflateExecutor != null)
+				&& ((it.getNumValues() * numBytes) >= PARALLEL_DEFLATE_THRESHOLD);
+		final ParallelDeflater parallelDeflater = parallel ? new ParallelDeflater(base64, deflateExecutor) : null;
+		final Deflater deflater = (dataArray.isBase64Binary() || parallel) ? null : new Deflater(compressionLevel);
+		final byte[] buffer = new byte[bufferSize];
+		final byte[] deflatedBuffer = new byte[bufferSize];
+		final ByteBuffer block = ByteBuffer.wrap(buffer);
+		block.order(dataArray.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+		if (deflater != null) {
+			deflater.setStrategy(compressionStrategy);
+		}
 
-						final byte[] encoded = GiftiUtils.encode(deflatedBuffer, 0, numValid);
+		try {
+			do {
+				block.clear();
+				final int length = it.next(block);
+				writeBlock(base64, deflater, parallelDeflater, buffer, deflatedBuffer, length, !it.hasNext());
+			} while (it.hasNext());
 
-						if (lineBreaks) {
-							currentString = (currentString + new String(encoded, "UTF-8"));
+			base64.finish();
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
 
-							while (currentString.length() > 76) {
-								out.writeCharacters(currentString.substring(0, 76) + "\r\n");
-								currentString = currentString.substring(76);
-							}
-						} else {
-							out.writeCharacters(new String(encoded, "UTF-8"));
-						}
+			if (parallelDeflater != null) {
+				parallelDeflater.cancel();
+			}
+		}
+	}
 
-						if (leftover > 0) {
-							System.arraycopy(deflatedBuffer, numValid, deflatedBuffer, 0, leftover);
-						}
-					}
-				}
 
-				bufferMark = 0;
-			}
+
+	private void writeBlock(final GiftiBase64Encoder base64, final Deflater deflater, final ParallelDeflater parallelDeflater, final byte[] buffer,
+			final byte[] deflatedBuffer, final int length, final boolean last) throws XMLStreamException,
+			InterruptedException, ExecutionException {
+		if (parallelDeflater != null) {
+			parallelDeflater.write(buffer, length, last);
+			return;
+		} else if (deflater == null) {
+			base64.write(buffer, 0, length);
+			return;
 		}
 
-		if (bufferMark > 0) {
-			deflater.setInput(buffer, 0, bufferMark);
+		deflater.setInput(buffer, 0, length);
+
+		if (last) {
 			deflater.finish();
+		}
+
+		while ((!last && !deflater.needsInput()) || (last && !deflater.finished())) {
+			final int numBytesDeflated = deflater.deflate(deflatedBuffer, 0, deflatedBuffer.length);
+			base64.write(deflatedBuffer, 0, numBytesDeflated);
+		}
+	}
 
-			while (!deflater.finished()) {
-				final int numBytesDeflated = deflater.deflate(deflatedBuffer, leftover, deflatedBuffer.length - leftover) + leftover;
 
-				if (numBytesDeflated > 0) {
-					final int numValid = (numBytesDeflated / 3) * 3;
-					leftover = numBytesDeflated % 3;
 
-					final byte[] encoded = GiftiUtils.encode(deflatedBuffer, 0, numValid);
+	private boolean isCopyingPayload(final DataArray dataArray) {
+		return dataArray.isPayloadCurrent() && !isSameFile(dataArray.getPayload().getFile(), outputFile);
+	}
 
-					if (lineBreaks) {
-						currentString = (currentString + new String(encoded, "UTF-8"));
 
-						while (currentString.length() > 76) {
-							out.writeCharacters(currentString.substring(0, 76) + "\r\n");
-							currentString = currentString.substring(76);
-						}
-					} else {
-						out.writeCharacters(new String(encoded, "UTF-8"));
-					}
 
-					if (leftover > 0) {
-						System.arraycopy(deflatedBuffer, numValid, deflatedBuffer, 0, leftover);
+	private boolean hasPayloadIn(final File payloadFile) {
+		for (final DataArray dataArray : gifti.getDataArrays()) {
+			if ((dataArray.getPayload() != null) && isSameFile(dataArray.getPayload().getFile(), payloadFile)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+
+	// the data arrays read from the file that was just replaced find their encoded data at new offsets
+	private void updatePayloads() {
+		final List<DataArray> dataArrays = gifti.getDataArrays();
+
+		for (int ctr = 0; ctr < dataArrays.size(); ctr++) {
+			final DataArray dataArray = dataArrays.get(ctr);
+
+			if ((dataArray.getPayload() != null) && isSameFile(dataArray.getPayload().getFile(), file)) {
+				dataArray.setPayload(writtenPayloads.get(ctr));
+			}
+		}
+	}
+
+
+
+	static boolean isSameFile(final File file1, final File file2) {
+		try {
+			return file1.getCanonicalFile().equals(file2.getCanonicalFile());
+		} catch (final IOException ex) {
+			return file1.getAbsoluteFile().equals(file2.getAbsoluteFile());
+		}
+	}
+
+
+
+	private File getExternalFile() {
+		final String name = file.getName();
+		final String baseName = name.toLowerCase().endsWith(FILE_EXTENSION) ? name.substring(0, name.length()
+				- FILE_EXTENSION.length()) : name;
+
+		return new File(file.getAbsoluteFile().getParentFile(), baseName + EXTERNAL_FILE_EXTENSION);
+	}
+
+
+
+	private long estimatePayloadSize(final DataArray dataArray) {
+		final GiftiWriterDataHandler it = new GiftiWriterDataHandler(dataArray);
+		long numChars;
+
+		if (dataArray.isAscii()) {
+			numChars = it.getNumValues() * ASCII_CHARS_PER_VALUE;
+		} else {
+			final long numBytes = it.getNumValues() * it.getBytesPerUnit();
+			numChars = ((numBytes + (numBytes >> 8) + 64 + 2) / 3) * 4; // deflate may expand incompressible data slightly
+
+			if (lineBreaks) {
+				numChars += ((numChars / GiftiBase64Encoder.LINE_LENGTH) + 1) * 2;
+			}
+		}
+
+		return 2 * numChars;
+	}
+
+
+
+	private class PayloadQueue {
+
+		private final List<DataArray> dataArrays;
+		private final List<FutureTask<PayloadWriter>> tasks;
+		private final long[] estimates;
+		private int nextIndex;
+		private long budgetUsed;
+
+
+
+		private PayloadQueue(final List<DataArray> dataArrays) {
+			this.dataArrays = dataArrays;
+			tasks = new ArrayList<FutureTask<PayloadWriter>>(Collections.<FutureTask<PayloadWriter>> nCopies(dataArrays.size(), null));
+			estimates = new long[dataArrays.size()];
+		}
+
+
+
+		private void write(final XMLStreamWriter out, final int index) throws XMLStreamException, InterruptedException, ExecutionException {
+			submitAhead();
+
+			final FutureTask<PayloadWriter> task = tasks.get(index);
+
+			if (task == null) {
+				writeData(out, dataArrays.get(index), executor);
+				return;
+			}
+
+			final PayloadWriter payload = task.get();
+			tasks.set(index, null);
+			out.writeCharacters(payload.getChars(), 0, payload.size());
+			budgetUsed -= estimates[index];
+		}
+
+
+
+		// submits data arrays in order for as long as their estimates fit in the budget, skipping those that never fit
+		private void submitAhead() {
+			while (nextIndex < dataArrays.size()) {
+				final DataArray dataArray = dataArrays.get(nextIndex);
+
+				if (dataArray.isExternalFileBinary() || isCopyingPayload(dataArray)) {
+					nextIndex++;
+					continue;
+				}
+
+				final long estimate = estimatePayloadSize(dataArray);
+
+				if ((estimate > memoryBudget) || ((estimate / 2) > MAX_PAYLOAD_LENGTH)) {
+					nextIndex++;
+					continue;
+				} else if ((budgetUsed + estimate) > memoryBudget) {
+					break;
+				}
+
+				final FutureTask<PayloadWriter> task = new FutureTask<PayloadWriter>(new Callable<PayloadWriter>() {
+
+					@Override
+					public PayloadWriter call() throws XMLStreamException, InterruptedException, ExecutionException {
+						final PayloadWriter payload = new PayloadWriter((int) (estimate / 2));
+						final XMLStreamWriter payloadOut = XMLOutputFactory.newInstance().createXMLStreamWriter(payload);
+						writeData(payloadOut, dataArray, null);
+						payloadOut.flush();
+						return payload;
 					}
+				});
+
+				tasks.set(nextIndex, task);
+				estimates[nextIndex] = estimate;
+				budgetUsed += estimate;
+				nextIndex++;
+				executor.execute(task);
+			}
+		}
+
+
+
+		private void cancel() {
+			for (final FutureTask<PayloadWriter> task : tasks) {
+				if (task != null) {
+					task.cancel(false);
 				}
 			}
+		}
+	}
 
-			if (leftover > 0) {
-				final byte[] encoded = GiftiUtils.encode(deflatedBuffer, 0, leftover);
 
-				if (lineBreaks) {
-					currentString = (currentString + new String(encoded, "UTF-8"));
 
-					while (currentString.length() > 76) {
-						out.writeCharacters(currentString.substring(0, 76) + "\r\n");
-						currentString = currentString.substring(76);
-					}
-				} else {
-					out.writeCharacters(new String(encoded, "UTF-8"));
+	private class ExternalDataFile {
+
+		private final File externalFile;
+		private final File tempFile;
+		private final FileOutputStream os;
+		private final FileChannel channel;
+		private boolean isCommitted;
+
+
+
+		private ExternalDataFile(final File externalFile) throws IOException {
+			this.externalFile = externalFile;
+			tempFile = File.createTempFile(externalFile.getName(), ".tmp", externalFile.getParentFile());
+			os = new FileOutputStream(tempFile);
+			channel = os.getChannel();
+		}
+
+
+
+		private void prepare(final DataArray dataArray) throws IOException {
+			dataArray.getAttributes().put(DataArray.ATT_EXTERNALFILENAME, externalFile.getName());
+			dataArray.getAttributes().put(DataArray.ATT_EXTERNALFILEOFFSET, String.valueOf(channel.position()));
+		}
+
+
+
+		private void write(final DataArray dataArray) throws IOException, GiftiFormatException {
+			final long start = channel.position();
+			writeData(dataArray);
+
+			// the offset and the Dims written to the document must describe what was actually written
+			final long numBytesWritten = channel.position() - start;
+			if (numBytesWritten != dataArray.getNumBytes()) {
+				throw new GiftiFormatException("Wrote " + numBytesWritten + " bytes of external data for a data array of "
+						+ dataArray.getNumBytes() + " bytes!");
+			}
+		}
+
+
+
+		private void writeData(final DataArray dataArray) throws IOException {
+			final SegmentedByteBuffer data = dataArray.getInternalSegmentedBuffer();
+
+			// bytes already in the declared byte order are written straight from the buffer
+			if ((data != null) && ((dataArray.getBytesPerUnit() <= 1) || (data.order() == dataArray.getByteOrder()))) {
+				for (int ctr = 0; ctr < data.getNumSegments(); ctr++) {
+					final ByteBuffer segment = data.getSegment(ctr).duplicate();
+					segment.clear();
+					writeFully(segment);
 				}
+
+				return;
+			}
+
+			final GiftiWriterDataHandler it = new GiftiWriterDataHandler(dataArray);
+			final ByteBuffer block = ByteBuffer.allocateDirect(bufferSize);
+			block.order(dataArray.getByteOrder());
+
+			while (it.hasNext()) {
+				block.clear();
+				it.next(block);
+				block.flip();
+				writeFully(block);
 			}
 		}
 
-		if (currentString.length() > 0) {
-			out.writeCharacters(currentString);
+
+
+		private void writeFully(final ByteBuffer src) throws IOException {
+			while (src.hasRemaining()) {
+				channel.write(src);
+			}
 		}
 
-		if (lineBreaks) {
-			out.writeCharacters("\r\n");
+
+
+		private void commit() throws IOException {
+			os.close();
+			Files.move(tempFile.toPath(), externalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			isCommitted = true;
+		}
+
+
+
+		private void close() {
+			if (!isCommitted) {
+				try {
+					os.close();
+				} catch (final IOException ex) {}
+
+				tempFile.delete();
+			}
+		}
+	}
+
+
+
+	private static class PayloadWriter extends CharArrayWriter {
+
+		private PayloadWriter(final int initialSize) {
+			super(initialSize);
+		}
+
+
+
+		// the characters written so far, without the copy made by toCharArray()
+		private char[] getChars() {
+			return buf;
+		}
+	}
+
+
+
+	private class ParallelDeflater {
+
+		private final GiftiBase64Encoder base64;
+		private final Executor executor;
+		private final ArrayDeque<FutureTask<DeflateBlock>> pending = new ArrayDeque<FutureTask<DeflateBlock>>();
+		private byte[] block = new byte[PARALLEL_BLOCK_SIZE];
+		private byte[] previousBlock;
+		private int blockLength;
+		private long adler = 1;
+
+
+
+		private ParallelDeflater(final GiftiBase64Encoder base64, final Executor executor) throws XMLStreamException {
+			this.base64 = base64;
+			this.executor = executor;
+
+			// zlib header (deflate, 32 KB window), with the level flags zlib itself would write
+			final int levelFlags;
+			if ((compressionStrategy == Deflater.HUFFMAN_ONLY) || ((compressionLevel >= 0) && (compressionLevel < 2))) {
+				levelFlags = 0;
+			} else if ((compressionLevel >= 2) && (compressionLevel < 6)) {
+				levelFlags = 1;
+			} else if ((compressionLevel == 6) || (compressionLevel == Deflater.DEFAULT_COMPRESSION)) {
+				levelFlags = 2;
+			} else {
+				levelFlags = 3;
+			}
+
+			int header = (0x78 << 8) | (levelFlags << 6);
+			header += 31 - (header % 31);
+			base64.write(new byte[] { (byte) (header >> 8), (byte) header }, 0, 2);
+		}
+
+
+
+		private void write(final byte[] data, final int length, final boolean last) throws XMLStreamException,
+				InterruptedException, ExecutionException {
+			int offset = 0;
+
+			while (offset < length) {
+				final int numBytes = Math.min(length - offset, block.length - blockLength);
+				System.arraycopy(data, offset, block, blockLength, numBytes);
+				blockLength += numBytes;
+				offset += numBytes;
+
+				if (blockLength == block.length) {
+					submit(false);
+				}
+			}
+
+			if (last) {
+				submit(true);
+
+				while (!pending.isEmpty()) {
+					writeNext();
+				}
+
+				base64.write(new byte[] { (byte) (adler >> 24), (byte) (adler >> 16), (byte) (adler >> 8), (byte) adler }, 0, 4);
+			}
+		}
+
+
+
+		private void submit(final boolean last) throws XMLStreamException, InterruptedException, ExecutionException {
+			if (pending.size() >= MAX_PENDING_BLOCKS) {
+				writeNext();
+			}
+
+			final FutureTask<DeflateBlock> task = new FutureTask<DeflateBlock>(new DeflateBlock(block, blockLength, previousBlock, last,
+					compressionLevel, compressionStrategy));
+			pending.add(task);
+			executor.execute(task);
+
+			previousBlock = block;
+			block = new byte[PARALLEL_BLOCK_SIZE];
+			blockLength = 0;
+		}
+
+
+
+		private void writeNext() throws XMLStreamException, InterruptedException, ExecutionException {
+			final DeflateBlock deflated = pending.poll().get();
+			base64.write(deflated.output, 0, deflated.outputLength);
+			adler = GiftiUtils.combineAdler32(adler, deflated.adler, deflated.length);
 		}
 
-		deflater.end();
+
+
+		private void cancel() {
+			for (final FutureTask<DeflateBlock> task : pending) {
+				task.cancel(false);
+			}
+
+			pending.clear();
+		}
+	}
+
+
+
+	private static class DeflateBlock implements Callable<DeflateBlock> {
+
+		private final byte[] input;
+		private final int length;
+		private final byte[] dictionary;
+		private final boolean last;
+		private final int level;
+		private final int strategy;
+		private byte[] output;
+		private int outputLength;
+		private long adler;
+
+
+
+		private DeflateBlock(final byte[] input, final int length, final byte[] dictionary, final boolean last, final int level,
+				final int strategy) {
+			this.input = input;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.last = last;
+			this.level = level;
+			this.strategy = strategy;
+		}
+
+
+
+		// a raw deflate block that ends on a byte boundary (sync flush), or with the final block of the stream if it is the last
+		@Override
+		public DeflateBlock call() {
+			final Deflater deflater = new Deflater(level, true);
+
+			try {
+				output = new byte[length + (length >> 3) + 64];
+				deflater.setStrategy(strategy);
+
+				// Deflater applies a new strategy in a call to deflate() that compresses nothing, make that call before there is input
+				deflater.deflate(output, 0, output.length);
+
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+				}
+
+				deflater.setInput(input, 0, length);
+
+				if (last) {
+					deflater.finish();
+				}
+
+				while (true) {
+					if (outputLength == output.length) {
+						output = Arrays.copyOf(output, output.length * 2);
+					}
+
+					final int available = output.length - outputLength;
+					final int numBytesDeflated = last ? deflater.deflate(output, outputLength, available) : deflater.deflate(output,
+							outputLength, available, Deflater.SYNC_FLUSH);
+					outputLength += numBytesDeflated;
+
+					if (last ? deflater.finished() : (numBytesDeflated < available)) {
+						break;
+					}
+				}
+			} finally {
+				deflater.end();
+			}
+
+			final Adler32 checksum = new Adler32();
+			checksum.update(input, 0, length);
+			adler = checksum.getValue();
+
+			return this;
+		}
 	}
 }
@@ -1,16 +1,22 @@
-
 package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 
 
 public class GiftiWriterDataHandler {
 
-	private FloatBuffer floatBuffer;
-	private IntBuffer intBuffer;
-	private int index;
-	private int capacity;
+	private Buffer typedBuffer;
+	private Buffer typedView;
+	private SegmentedByteBuffer segmentedBuffer;
+	private final int bytesPerUnit;
+	private long index;
+	private long capacity;
 
 
 
@@ -18,17 +24,40 @@ public class GiftiWriterDataHandler {
 	 * @param dataArray
 	 */
 	public GiftiWriterDataHandler(final DataArray dataArray) {
-		if (dataArray.isFloat32()) {
-			floatBuffer = dataArray.getAsFloatBuffer();
-			capacity = floatBuffer.capacity();
-		} else if (dataArray.isInt32()) {
-			intBuffer = dataArray.getAsIntBuffer();
-			capacity = intBuffer.capacity();
+		bytesPerUnit = dataArray.getBytesPerUnit();
+
+		if (bytesPerUnit == 0) {
+			return;
+		}
+
+		if ((segmentedBuffer = dataArray.getInternalSegmentedBuffer()) != null) {
+			capacity = segmentedBuffer.capacity() / bytesPerUnit;
+		} else if ((typedBuffer = dataArray.getInternalBuffer()) != null) {
+			capacity = typedBuffer.capacity();
+			typedView = duplicate(typedBuffer);
 		}
 	}
 
 
 
+	/**
+	 * @return the size of the values returned by next() and nextLong()
+	 */
+	public int getBytesPerUnit() {
+		return bytesPerUnit;
+	}
+
+
+
+	/**
+	 * @return the number of values
+	 */
+	public long getNumValues() {
+		return capacity;
+	}
+
+
+
 	/**
 	 * @return
 	 */
@@ -39,15 +68,121 @@ public class GiftiWriterDataHandler {
 
 
 	/**
+	 * Returns the bits of the next 1, 2 or 4-byte value in the low getBytesPerUnit() bytes, e.g., the raw bits of a float.
+	 *
 	 * @return
+	 * @throws IllegalStateException if the values are 8 bytes wide, see nextLong()
 	 */
 	public int next() {
-		if (floatBuffer != null) {
-			return Float.floatToIntBits(floatBuffer.get(index++));
-		} else if (intBuffer != null) {
-			return intBuffer.get(index++);
+		if (bytesPerUnit > 4) {
+			throw new IllegalStateException("Values of " + bytesPerUnit + " bytes do not fit in an int!");
 		}
 
+		return (int) nextLong();
+	}
+
+
+
+	/**
+	 * Returns the bits of the next value of any size in the low getBytesPerUnit() bytes, e.g., the raw bits of a float or double.
+	 *
+	 * @return
+	 */
+	public long nextLong() {
+		if (segmentedBuffer != null) {
+			final long byteIndex = bytesPerUnit * index++;
+
+			if (bytesPerUnit == 4) {
+				return segmentedBuffer.getInt(byteIndex);
+			} else if (bytesPerUnit == 1) {
+				return segmentedBuffer.get(byteIndex);
+			} else if (bytesPerUnit == 2) {
+				return segmentedBuffer.getShort(byteIndex);
+			} else {
+				return segmentedBuffer.getLong(byteIndex);
+			}
+		} else if (typedBuffer instanceof FloatBuffer) {
+			return Float.floatToRawIntBits(((FloatBuffer) typedBuffer).get((int) index++));
+		} else if (typedBuffer instanceof IntBuffer) {
+			return ((IntBuffer) typedBuffer).get((int) index++);
+		} else if (typedBuffer instanceof ShortBuffer) {
+			return ((ShortBuffer) typedBuffer).get((int) index++);
+		} else if (typedBuffer instanceof DoubleBuffer) {
+			return Double.doubleToRawLongBits(((DoubleBuffer) typedBuffer).get((int) index++));
+		} else if (typedBuffer instanceof LongBuffer) {
+			return ((LongBuffer) typedBuffer).get((int) index++);
+		}
+
+		index++;
 		return 0;
 	}
+
+
+
+	/**
+	 * Copies as many whole values as fit in the remaining space of the destination, in the byte order of the destination, and
+	 * advances the position of the destination past them.
+	 *
+	 * @param dst
+	 * @return the number of bytes copied
+	 */
+	public int next(final ByteBuffer dst) {
+		final int numValues = (bytesPerUnit == 0) ? 0 : (int) Math.min(dst.remaining() / bytesPerUnit, capacity - index);
+		final int numBytes = numValues * bytesPerUnit;
+		final int dstPosition = dst.position();
+
+		if (numValues == 0) {
+			return 0;
+		}
+
+		if (segmentedBuffer != null) {
+			final int dstLimit = dst.limit();
+			dst.limit(dstPosition + numBytes);
+			segmentedBuffer.get(bytesPerUnit * index, dst, bytesPerUnit);
+			dst.limit(dstLimit);
+		} else if (typedView != null) {
+			typedView.limit((int) index + numValues);
+			typedView.position((int) index);
+
+			if (typedView instanceof FloatBuffer) {
+				dst.asFloatBuffer().put((FloatBuffer) typedView);
+			} else if (typedView instanceof IntBuffer) {
+				dst.asIntBuffer().put((IntBuffer) typedView);
+			} else if (typedView instanceof ShortBuffer) {
+				dst.asShortBuffer().put((ShortBuffer) typedView);
+			} else if (typedView instanceof DoubleBuffer) {
+				dst.asDoubleBuffer().put((DoubleBuffer) typedView);
+			} else if (typedView instanceof LongBuffer) {
+				dst.asLongBuffer().put((LongBuffer) typedView);
+			} else {
+				for (int ctr = 0; ctr < numBytes; ctr++) {
+					dst.put(dstPosition + ctr, (byte) 0);
+				}
+			}
+
+			dst.position(dstPosition + numBytes);
+		}
+
+		index += numValues;
+		return numBytes;
+	}
+
+
+
+	// a view with its own position and limit, so that bulk copies leave the buffer of the data array alone
+	private static Buffer duplicate(final Buffer buffer) {
+		if (buffer instanceof FloatBuffer) {
+			return ((FloatBuffer) buffer).duplicate();
+		} else if (buffer instanceof IntBuffer) {
+			return ((IntBuffer) buffer).duplicate();
+		} else if (buffer instanceof ShortBuffer) {
+			return ((ShortBuffer) buffer).duplicate();
+		} else if (buffer instanceof DoubleBuffer) {
+			return ((DoubleBuffer) buffer).duplicate();
+		} else if (buffer instanceof LongBuffer) {
+			return ((LongBuffer) buffer).duplicate();
+		}
+
+		return buffer;
+	}
 }
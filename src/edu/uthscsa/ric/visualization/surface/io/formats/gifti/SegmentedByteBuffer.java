@@ -0,0 +1,538 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+
+public class SegmentedByteBuffer {
+
+	private final ByteBuffer[] segments;
+	private final long capacity;
+	private final int segmentShift;
+	private final long segmentMask;
+	private long position;
+	private ByteBuffer currentView;
+	private int currentViewIndex;
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+
+
+	private SegmentedByteBuffer(final ByteBuffer[] segments, final long capacity, final int segmentShift) {
+		this.segments = segments;
+		this.capacity = capacity;
+		this.segmentShift = segmentShift;
+		segmentMask = (1L << segmentShift) - 1;
+		currentViewIndex = -1;
+	}
+
+
+
+	/**
+	 * Allocates a direct buffer in native byte order: a single segment if the capacity fits in one ByteBuffer, otherwise segments of the
+	 * default size.
+	 *
+	 * @param capacity the total number of bytes
+	 * @return the buffer
+	 */
+	public static SegmentedByteBuffer allocateDirect(final long capacity) {
+		if (capacity <= Integer.MAX_VALUE) {
+			final ByteBuffer byteBuffer = ByteBuffer.allocateDirect((int) capacity);
+			byteBuffer.order(ByteOrder.nativeOrder());
+			return wrap(byteBuffer);
+		}
+
+		return allocateDirect(capacity, DEFAULT_SEGMENT_SIZE);
+	}
+
+
+
+	/**
+	 * Allocates direct segments in native byte order.
+	 *
+	 * @param capacity the total number of bytes
+	 * @param segmentSize the size of each segment but the last, a power of two of at least 8
+	 * @return the buffer
+	 */
+	public static SegmentedByteBuffer allocateDirect(final long capacity, final int segmentSize) {
+		final int segmentShift = toShift(segmentSize);
+		final ByteBuffer[] segments = new ByteBuffer[numSegments(capacity, segmentShift)];
+
+		for (int ctr = 0; ctr < segments.length; ctr++) {
+			segments[ctr] = ByteBuffer.allocateDirect(segmentLength(capacity, segmentShift, ctr));
+			segments[ctr].order(ByteOrder.nativeOrder());
+		}
+
+		return new SegmentedByteBuffer(segments, capacity, segmentShift);
+	}
+
+
+
+	/**
+	 * Maps a region of a file as read-only segments of the default size, in native byte order.
+	 *
+	 * @param channel
+	 * @param offset
+	 * @param size
+	 * @return the buffer
+	 * @throws IOException
+	 */
+	public static SegmentedByteBuffer map(final FileChannel channel, final long offset, final long size) throws IOException {
+		final int segmentShift = toShift(DEFAULT_SEGMENT_SIZE);
+		final ByteBuffer[] segments = new ByteBuffer[numSegments(size, segmentShift)];
+
+		for (int ctr = 0; ctr < segments.length; ctr++) {
+			segments[ctr] = channel.map(MapMode.READ_ONLY, offset + ((long) ctr << segmentShift), segmentLength(size, segmentShift, ctr));
+			segments[ctr].order(ByteOrder.nativeOrder());
+		}
+
+		return new SegmentedByteBuffer(segments, size, segmentShift);
+	}
+
+
+
+	/**
+	 * Wraps a single buffer, which keeps its byte order. The position of the segmented buffer is independent of the position of the
+	 * wrapped buffer.
+	 *
+	 * @param buffer
+	 * @return the buffer
+	 */
+	public static SegmentedByteBuffer wrap(final ByteBuffer buffer) {
+		return new SegmentedByteBuffer(new ByteBuffer[] { buffer }, buffer.capacity(), 31);
+	}
+
+
+
+	/**
+	 * Sets the byte order of all segments.
+	 *
+	 * @param order
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer order(final ByteOrder order) {
+		for (final ByteBuffer segment : segments) {
+			segment.order(order);
+		}
+
+		currentViewIndex = -1;
+		return this;
+	}
+
+
+
+	/**
+	 * @return the byte order of the segments
+	 */
+	public ByteOrder order() {
+		return (segments.length > 0) ? segments[0].order() : ByteOrder.nativeOrder();
+	}
+
+
+
+	/**
+	 * @return the total number of bytes
+	 */
+	public long capacity() {
+		return capacity;
+	}
+
+
+
+	/**
+	 * @return the position of the next relative put
+	 */
+	public long position() {
+		return position;
+	}
+
+
+
+	/**
+	 * @param position
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer position(final long position) {
+		if ((position < 0) || (position > capacity)) {
+			throw new IllegalArgumentException("Position " + position + " is out of bounds!");
+		}
+
+		this.position = position;
+		return this;
+	}
+
+
+
+	/**
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer rewind() {
+		position = 0;
+		return this;
+	}
+
+
+
+	/**
+	 * @return the number of bytes between the position and the capacity
+	 */
+	public long remaining() {
+		return capacity - position;
+	}
+
+
+
+	/**
+	 * @return the number of segments
+	 */
+	public int getNumSegments() {
+		return segments.length;
+	}
+
+
+
+	/**
+	 * @param index
+	 * @return the segment, which shares its content with this buffer
+	 */
+	public ByteBuffer getSegment(final int index) {
+		return segments[index];
+	}
+
+
+
+	/**
+	 * @param index the byte index
+	 * @return the byte
+	 */
+	public byte get(final long index) {
+		return segments[(int) (index >>> segmentShift)].get((int) (index & segmentMask));
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 4 bytes when there is more than one segment
+	 * @return the value
+	 */
+	public int getInt(final long index) {
+		return segments[(int) (index >>> segmentShift)].getInt((int) (index & segmentMask));
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 4 bytes when there is more than one segment
+	 * @return the value
+	 */
+	public float getFloat(final long index) {
+		return segments[(int) (index >>> segmentShift)].getFloat((int) (index & segmentMask));
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 2 bytes when there is more than one segment
+	 * @return the value
+	 */
+	public short getShort(final long index) {
+		return segments[(int) (index >>> segmentShift)].getShort((int) (index & segmentMask));
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 8 bytes when there is more than one segment
+	 * @return the value
+	 */
+	public long getLong(final long index) {
+		return segments[(int) (index >>> segmentShift)].getLong((int) (index & segmentMask));
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 8 bytes when there is more than one segment
+	 * @return the value
+	 */
+	public double getDouble(final long index) {
+		return segments[(int) (index >>> segmentShift)].getDouble((int) (index & segmentMask));
+	}
+
+
+
+	/**
+	 * @param index the byte index
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer put(final long index, final byte value) {
+		segments[(int) (index >>> segmentShift)].put((int) (index & segmentMask), value);
+		return this;
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 4 bytes when there is more than one segment
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putInt(final long index, final int value) {
+		segments[(int) (index >>> segmentShift)].putInt((int) (index & segmentMask), value);
+		return this;
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 4 bytes when there is more than one segment
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putFloat(final long index, final float value) {
+		segments[(int) (index >>> segmentShift)].putFloat((int) (index & segmentMask), value);
+		return this;
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 2 bytes when there is more than one segment
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putShort(final long index, final short value) {
+		segments[(int) (index >>> segmentShift)].putShort((int) (index & segmentMask), value);
+		return this;
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 8 bytes when there is more than one segment
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putLong(final long index, final long value) {
+		segments[(int) (index >>> segmentShift)].putLong((int) (index & segmentMask), value);
+		return this;
+	}
+
+
+
+	/**
+	 * @param index the byte index, which must be aligned to 8 bytes when there is more than one segment
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putDouble(final long index, final double value) {
+		segments[(int) (index >>> segmentShift)].putDouble((int) (index & segmentMask), value);
+		return this;
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer put(final byte value) {
+		put(position, value);
+		position++;
+		return this;
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putInt(final int value) {
+		putInt(position, value);
+		position += 4;
+		return this;
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putFloat(final float value) {
+		putFloat(position, value);
+		position += 4;
+		return this;
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putShort(final short value) {
+		putShort(position, value);
+		position += 2;
+		return this;
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putLong(final long value) {
+		putLong(position, value);
+		position += 8;
+		return this;
+	}
+
+
+
+	/**
+	 * @param value
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer putDouble(final double value) {
+		putDouble(position, value);
+		position += 8;
+		return this;
+	}
+
+
+
+	/**
+	 * Copies the remaining bytes of the source, converting from the byte order of the source to the byte order of this buffer.
+	 *
+	 * @param src
+	 * @param bytesPerUnit the size of the values to convert (1, 2, 4 or 8)
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer put(final ByteBuffer src, final int bytesPerUnit) {
+		final int srcLimit = src.limit();
+
+		try {
+			while (src.hasRemaining()) {
+				final ByteBuffer view = getView((int) (position >>> segmentShift));
+				view.position((int) (position & segmentMask));
+
+				final int numBytes = Math.min(src.remaining(), view.remaining());
+				if (numBytes == 0) {
+					throw new IndexOutOfBoundsException("Data exceeds the buffer capacity of " + capacity + " bytes!");
+				}
+
+				src.limit(src.position() + numBytes);
+				GiftiUtils.copyOrdered(src, view, bytesPerUnit);
+				src.limit(srcLimit);
+				position += numBytes;
+			}
+		} finally {
+			src.limit(srcLimit);
+		}
+
+		return this;
+	}
+
+
+
+	/**
+	 * Copies the remaining bytes of the segments, from the position, to the destination.
+	 *
+	 * @param dst
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer get(final ByteBuffer dst) {
+		while (dst.hasRemaining() && (position < capacity)) {
+			final ByteBuffer view = getView((int) (position >>> segmentShift));
+			view.position((int) (position & segmentMask));
+
+			final int numBytes = Math.min(dst.remaining(), view.remaining());
+			view.limit(view.position() + numBytes);
+			dst.put(view);
+			view.limit(view.capacity());
+			position += numBytes;
+		}
+
+		return this;
+	}
+
+
+
+	/**
+	 * Copies bytes, from an index, to the remaining space of the destination, converting from the byte order of this buffer to the
+	 * byte order of the destination. The position of this buffer is not used or changed.
+	 *
+	 * @param index the byte index of the first byte to copy
+	 * @param dst
+	 * @param bytesPerUnit the size of the values to convert (1, 2, 4 or 8)
+	 * @return this buffer
+	 */
+	public SegmentedByteBuffer get(final long index, final ByteBuffer dst, final int bytesPerUnit) {
+		long srcIndex = index;
+
+		while (dst.hasRemaining()) {
+			final int segmentIndex = (int) (srcIndex >>> segmentShift);
+			if (segmentIndex >= segments.length) {
+				throw new IndexOutOfBoundsException("Index " + srcIndex + " exceeds the buffer capacity of " + capacity + " bytes!");
+			}
+
+			final ByteBuffer view = segments[segmentIndex].duplicate();
+			view.order(segments[segmentIndex].order());
+			view.clear();
+			view.position((int) (srcIndex & segmentMask));
+
+			final int numBytes = Math.min(dst.remaining(), view.remaining());
+			view.limit(view.position() + numBytes);
+			GiftiUtils.copyOrdered(view, dst, bytesPerUnit);
+			srcIndex += numBytes;
+		}
+
+		return this;
+	}
+
+
+
+	private ByteBuffer getView(final int index) {
+		if (index >= segments.length) {
+			throw new IndexOutOfBoundsException("Data exceeds the buffer capacity of " + capacity + " bytes!");
+		}
+
+		if (index != currentViewIndex) {
+			currentView = segments[index].duplicate();
+			currentView.order(segments[index].order());
+			currentView.clear();
+			currentViewIndex = index;
+		}
+
+		return currentView;
+	}
+
+
+
+	private static int toShift(final int segmentSize) {
+		if ((segmentSize < 8) || (Integer.bitCount(segmentSize) != 1)) {
+			throw new IllegalArgumentException("Segment size must be a power of two of at least 8!");
+		}
+
+		return Integer.numberOfTrailingZeros(segmentSize);
+	}
+
+
+
+	private static int numSegments(final long capacity, final int segmentShift) {
+		return (int) ((capacity + (1L << segmentShift) - 1) >>> segmentShift);
+	}
+
+
+
+	private static int segmentLength(final long capacity, final int segmentShift, final int index) {
+		return (int) Math.min(1L << segmentShift, capacity - ((long) index << segmentShift));
+	}
+}
@@ -0,0 +1,19 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+public class AllTests {
+
+	public static void main(final String[] args) throws Exception {
+		DataArrayTest.main(args);
+		GiftiAsciiDecoderTest.main(args);
+		GiftiDataDecoderTest.main(args);
+		GiftiReaderTest.main(args);
+		GiftiWriterDataHandlerTest.main(args);
+		GiftiWriterTest.main(args);
+		GiftiStreamWriterTest.main(args);
+		GiftiTransposerTest.main(args);
+		GiftiUtilsTest.main(args);
+		GiftiBatchReaderTest.main(args);
+		System.out.println("All tests passed.");
+	}
+}
@@ -0,0 +1,60 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.checkRowMajorArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createColumnMajorArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+
+
+public class DataArrayTest {
+
+	public static void main(final String[] args) throws Exception {
+		testExternalFileOffset();
+		testAllocateExternalBuffer();
+		testToRowMajorOrder(70, 130);
+		testToRowMajorOrder(100, 100);
+	}
+
+
+
+	private static void testExternalFileOffset() throws Exception {
+		final DataArray dataArray = createFloatArray(DataArray.ENCODING_EXTERNALFILEBINARY, 10, 0);
+
+		dataArray.getAttributes().put(DataArray.ATT_EXTERNALFILEOFFSET, "1024");
+		check(dataArray.getExternalFileOffset() == 1024, "int offset");
+		check(dataArray.getExternalFileOffsetLong() == 1024, "long offset");
+
+		final long largeOffset = Integer.MAX_VALUE + 1L;
+		dataArray.getAttributes().put(DataArray.ATT_EXTERNALFILEOFFSET, String.valueOf(largeOffset));
+		check(dataArray.getExternalFileOffsetLong() == largeOffset, "long offset past 2 GB");
+
+		try {
+			dataArray.getExternalFileOffset();
+			check(false, "offset past 2 GB returned as an int");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+	}
+
+
+
+	private static void testAllocateExternalBuffer() throws Exception {
+		final DataArray source = createFloatArray(DataArray.ENCODING_EXTERNALFILEBINARY, 10, 0);
+		final DataArray dataArray = new DataArray(source.getAttributes(), false);
+
+		check(dataArray.getSegmentedBuffer() != null, "buffer of a new ExternalFileBinary data array");
+		check(dataArray.getSegmentedBuffer().capacity() == 40, "capacity of a new ExternalFileBinary data array");
+	}
+
+
+
+	// spans several partial tiles; a square array is transposed in place
+	private static void testToRowMajorOrder(final int numRows, final int numColumns) throws Exception {
+		final DataArray dataArray = createColumnMajorArray(DataArray.ENCODING_ASCII, numRows, numColumns);
+		dataArray.toRowMajorOrder();
+
+		check(dataArray.isDirty(), "converted data array dirty");
+		checkRowMajorArray(dataArray, numRows, numColumns, numRows + "x" + numColumns + " data array");
+	}
+}
@@ -0,0 +1,90 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+
+
+public class GiftiAsciiDecoderTest {
+
+	public static void main(final String[] args) throws Exception {
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_INT8, "-128 127 3.0 1e2", -128, 127, 3, 100);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_UINT8, "0 255", 0, (byte) 255);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_INT16, "-32768 32767", -32768, 32767);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_UINT16, "0 65535", 0, (short) 65535);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_INT32, "-2147483648 2147483647", Integer.MIN_VALUE, Integer.MAX_VALUE);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_UINT32, "0 4294967295", 0, (int) 4294967295L);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_INT64, "-9223372036854775808 9223372036854775807", Long.MIN_VALUE, Long.MAX_VALUE);
+		testIntegerBounds(DataArray.TYPE_NIFTI_TYPE_UINT64, "0 18446744073709551615 1e19", 0, -1, -8446744073709551616L);
+
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_INT8, "128", "-129", "300", "1e3");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_UINT8, "256", "-1");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_INT16, "32768", "-32769");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_UINT16, "65536", "-1");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_INT32, "2147483648", "-2147483649");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_UINT32, "4294967296", "-1");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_INT64, "9223372036854775808", "-9223372036854775809", "1e19");
+		testOutOfRange(DataArray.TYPE_NIFTI_TYPE_UINT64, "18446744073709551616", "-1", "2e19");
+	}
+
+
+
+	private static DataArray createArray(final String dataType, final int numValues) {
+		final DataArray dataArray = createFloatArray(DataArray.ENCODING_ASCII, numValues, 0);
+		dataArray.getAttributes().put(DataArray.ATT_DATATYPE, dataType);
+		return dataArray;
+	}
+
+
+
+	private static SegmentedByteBuffer decode(final DataArray dataArray, final String data) throws DataFormatException {
+		final SegmentedByteBuffer buffer = SegmentedByteBuffer.allocateDirect(dataArray.getNumBytes());
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		final GiftiAsciiDecoder decoder = new GiftiAsciiDecoder();
+		decoder.start(dataArray, buffer);
+		decoder.decode(data.toCharArray(), 0, data.length());
+		decoder.finish();
+		return buffer;
+	}
+
+
+
+	private static void testIntegerBounds(final String dataType, final String data, final long... expected) throws Exception {
+		final DataArray dataArray = createArray(dataType, expected.length);
+		final SegmentedByteBuffer buffer = decode(dataArray, data);
+		final int bytesPerUnit = dataArray.getBytesPerUnit();
+
+		for (int ctr = 0; ctr < expected.length; ctr++) {
+			final long index = (long) ctr * bytesPerUnit;
+			final long value;
+
+			if (bytesPerUnit == 1) {
+				value = buffer.get(index);
+			} else if (bytesPerUnit == 2) {
+				value = buffer.getShort(index);
+			} else if (bytesPerUnit == 4) {
+				value = buffer.getInt(index);
+			} else {
+				value = buffer.getLong(index);
+			}
+
+			check(value == expected[ctr], dataType + " value " + ctr + ": " + value);
+		}
+	}
+
+
+
+	private static void testOutOfRange(final String dataType, final String... tokens) throws Exception {
+		for (final String token : tokens) {
+			try {
+				decode(createArray(dataType, 1), token);
+				check(false, dataType + " value " + token + " accepted");
+			} catch (final DataFormatException ex) {
+				// expected
+			}
+		}
+	}
+}
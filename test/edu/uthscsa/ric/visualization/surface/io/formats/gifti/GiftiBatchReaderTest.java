@@ -0,0 +1,134 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.checkFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createGifti;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class GiftiBatchReaderTest {
+
+	private static final int NUM_FILES = 3;
+	private static final int NUM_VALUES = 1000;
+	private static final long FILE_SIZE = 2 * NUM_VALUES * 4; // two FLOAT32 data arrays per file
+
+
+
+	public static void main(final String[] args) throws Exception {
+		final List<Path> paths = writeFiles();
+		testBudgetLimitsConcurrency(paths);
+		testBudgetCountsFilteredArrays(paths);
+		testBudgetIgnoresLazyArrays(paths);
+		testBudgetInCompletionOrder(paths);
+	}
+
+
+
+	private static List<Path> writeFiles() throws Exception {
+		final File dir = GiftiTestUtils.createTempDir();
+		final List<Path> paths = new ArrayList<Path>();
+
+		for (int ctr = 0; ctr < NUM_FILES; ctr++) {
+			final File file = new File(dir, "batch" + ctr + ".gii");
+			final GIFTI gifti = createGifti(2);
+			gifti.addDataArray(createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, NUM_VALUES, ctr));
+			gifti.addDataArray(createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, NUM_VALUES, ctr + 1));
+			new GiftiWriter(gifti, file).writeGiftiXML();
+			paths.add(file.toPath());
+		}
+
+		return paths;
+	}
+
+
+
+	// a budget that fits one file at a time reads every file, one after the other
+	private static void testBudgetLimitsConcurrency(final List<Path> paths) throws Exception {
+		final AtomicInteger numReading = new AtomicInteger();
+		final AtomicInteger maxReading = new AtomicInteger();
+		final GiftiReaderFactory factory = new GiftiReaderFactory() {
+
+			@Override
+			public GIFTI read(final Path path) throws GiftiFormatException {
+				final int count = numReading.incrementAndGet();
+				synchronized (maxReading) {
+					maxReading.set(Math.max(maxReading.get(), count));
+				}
+
+				try {
+					Thread.sleep(20);
+					return super.read(path);
+				} catch (final InterruptedException ex) {
+					throw new GiftiFormatException(ex);
+				} finally {
+					numReading.decrementAndGet();
+				}
+			}
+		};
+
+		final GiftiBatchReader reader = new GiftiBatchReader(factory);
+		reader.setParallelism(NUM_FILES);
+		reader.setMemoryBudget(FILE_SIZE + (FILE_SIZE / 2));
+		final List<GiftiBatchResult> results = reader.read(paths);
+
+		for (int ctr = 0; ctr < NUM_FILES; ctr++) {
+			check(results.get(ctr).isSuccessful(), "file " + ctr + " read within the budget");
+			checkFloatArray(results.get(ctr).getGifti().getDataArrays().get(1), NUM_VALUES, ctr + 1, "file " + ctr);
+		}
+
+		check(maxReading.get() == 1, "files read at once within the budget");
+	}
+
+
+
+	private static void testBudgetCountsFilteredArrays(final List<Path> paths) throws Exception {
+		final GiftiReaderFactory factory = new GiftiReaderFactory();
+		factory.setFilter(DataArrayFilters.range(0, 1));
+		final GiftiBatchReader reader = new GiftiBatchReader(factory);
+		reader.setMemoryBudget(NUM_FILES * (FILE_SIZE / 2));
+		final List<GiftiBatchResult> results = reader.read(paths);
+
+		for (int ctr = 0; ctr < NUM_FILES; ctr++) {
+			check(results.get(ctr).isSuccessful(), "filtered file " + ctr + " within the budget");
+			checkFloatArray(results.get(ctr).getGifti().getDataArrays().get(0), NUM_VALUES, ctr, "filtered file " + ctr);
+		}
+	}
+
+
+
+	private static void testBudgetIgnoresLazyArrays(final List<Path> paths) throws Exception {
+		final GiftiReaderFactory factory = new GiftiReaderFactory();
+		factory.setLazy(true);
+		final GiftiBatchReader reader = new GiftiBatchReader(factory);
+		reader.setMemoryBudget(1);
+		final List<GiftiBatchResult> results = reader.read(paths);
+
+		for (int ctr = 0; ctr < NUM_FILES; ctr++) {
+			check(results.get(ctr).isSuccessful(), "lazy file " + ctr + " within the budget");
+		}
+	}
+
+
+
+	private static void testBudgetInCompletionOrder(final List<Path> paths) throws Exception {
+		final GiftiBatchReader reader = new GiftiBatchReader();
+		reader.setMemoryBudget(FILE_SIZE);
+		final Iterator<GiftiBatchResult> results = reader.readInCompletionOrder(paths);
+
+		int numResults = 0;
+		while (results.hasNext()) {
+			check(results.next().isSuccessful(), "file read in completion order");
+			numResults++;
+		}
+
+		check(numResults == NUM_FILES, "results in completion order");
+	}
+}
@@ -0,0 +1,97 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createGifti;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+
+
+public class GiftiDataDecoderTest {
+
+	private static final int NUM_VALUES = 100000;
+	private static final float VALUE = 1.5f;
+
+
+
+	public static void main(final String[] args) throws Exception {
+		testDrainInflater();
+		testTruncatedCompressedData();
+	}
+
+
+
+	// constant values compress so well that a few bytes of input inflate to more than the decoder buffer holds
+	private static byte[] writeConstantPayload() throws Exception {
+		final DataArray dataArray = createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, NUM_VALUES, 0);
+		for (int ctr = 0; ctr < NUM_VALUES; ctr++) {
+			dataArray.getSegmentedBuffer().putFloat(4L * ctr, VALUE);
+		}
+
+		final File file = new File(GiftiTestUtils.createTempDir(), "constant.gii");
+		final GIFTI gifti = createGifti(1);
+		gifti.addDataArray(dataArray);
+		new GiftiWriter(gifti, file).writeGiftiXML();
+
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(true);
+		final GiftiPayload payload = reader.parseGiftiXML().getDataArrays().get(0).getPayload();
+		final byte[] encoded = new byte[(int) payload.getLength()];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(payload.getOffset());
+			raf.readFully(encoded);
+		}
+
+		return encoded;
+	}
+
+
+
+	private static SegmentedByteBuffer decode(final byte[] encoded, final int length) throws DataFormatException {
+		final DataArray dataArray = createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, NUM_VALUES, 0);
+		final SegmentedByteBuffer buffer = SegmentedByteBuffer.allocateDirect(dataArray.getNumBytes());
+		final GiftiDataDecoder decoder = new GiftiDataDecoder();
+
+		try {
+			decoder.start(dataArray, buffer);
+
+			// one byte at a time, so that the inflater has used up its input while it still holds output
+			for (int ctr = 0; ctr < length; ctr++) {
+				decoder.decode(encoded, ctr, 1);
+			}
+
+			decoder.finish();
+		} finally {
+			decoder.end();
+		}
+
+		return buffer;
+	}
+
+
+
+	private static void testDrainInflater() throws Exception {
+		final byte[] encoded = writeConstantPayload();
+		final SegmentedByteBuffer buffer = decode(encoded, encoded.length);
+
+		for (int ctr = 0; ctr < NUM_VALUES; ctr++) {
+			check(buffer.getFloat(4L * ctr) == VALUE, "inflated value " + ctr);
+		}
+	}
+
+
+
+	private static void testTruncatedCompressedData() throws Exception {
+		final byte[] encoded = writeConstantPayload();
+
+		try {
+			decode(encoded, encoded.length / 2);
+			check(false, "truncated compressed data decoded");
+		} catch (final DataFormatException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,127 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.checkFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.checkRowMajorArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createColumnMajorArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createGifti;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+
+public class GiftiReaderTest {
+
+	private static final int NUM_VALUES = 1000;
+
+
+
+	public static void main(final String[] args) throws Exception {
+		testReadAfterCancelledAsyncRead();
+		testLazyRead();
+		testFilteredRead();
+		testConvertToRowMajorOrder(false);
+		testConvertToRowMajorOrder(true);
+	}
+
+
+
+	private static File writeFile(final int numDataArrays) throws Exception {
+		final File file = new File(GiftiTestUtils.createTempDir(), "read.gii");
+		final GIFTI gifti = createGifti(numDataArrays);
+		for (int ctr = 0; ctr < numDataArrays; ctr++) {
+			gifti.addDataArray(createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, NUM_VALUES, ctr));
+		}
+
+		new GiftiWriter(gifti, file).writeGiftiXML();
+		return file;
+	}
+
+
+
+	private static void testReadAfterCancelledAsyncRead() throws Exception {
+		final GiftiReader reader = new GiftiReader(writeFile(3));
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		final GiftiFuture<GIFTI> future = reader.parseGiftiXMLAsync(new Executor() {
+
+			@Override
+			public void execute(final Runnable command) {
+				tasks.add(command);
+			}
+		});
+
+		future.cancel(false);
+		tasks.get(0).run();
+		check(future.isCancelled(), "async read cancelled");
+
+		final GIFTI gifti = reader.parseGiftiXML();
+		check(gifti.getDataArrays().size() == 3, "data arrays after a cancelled async read");
+		checkFloatArray(gifti.getDataArrays().get(2), NUM_VALUES, 2, "data array 2");
+	}
+
+
+
+	private static void testLazyRead() throws Exception {
+		final File file = new File(GiftiTestUtils.createTempDir(), "lazy.gii");
+		final String[] encodings = { DataArray.ENCODING_ASCII, DataArray.ENCODING_BASE64BINARY, DataArray.ENCODING_GZIPBASE64BINARY };
+		final GIFTI source = createGifti(encodings.length);
+		for (int ctr = 0; ctr < encodings.length; ctr++) {
+			source.addDataArray(createFloatArray(encodings[ctr], NUM_VALUES, ctr));
+		}
+		new GiftiWriter(source, file, true).writeGiftiXML();
+
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(true);
+		final GIFTI gifti = reader.parseGiftiXML();
+
+		check(gifti.getDataArrays().size() == encodings.length, "lazy data arrays");
+		for (int ctr = 0; ctr < encodings.length; ctr++) {
+			final DataArray dataArray = gifti.getDataArrays().get(ctr);
+			check(!dataArray.isLoaded(), "lazy " + encodings[ctr] + " loaded while parsing");
+			checkFloatArray(dataArray, NUM_VALUES, ctr, "lazy " + encodings[ctr]);
+		}
+	}
+
+
+
+	private static void testFilteredRead() throws Exception {
+		final GiftiReader reader = new GiftiReader(writeFile(4));
+		reader.setFilter(DataArrayFilters.range(1, 3));
+		final GIFTI gifti = reader.parseGiftiXML();
+
+		check(gifti.getDataArrays().size() == 4, "filtered data arrays");
+		for (int ctr = 0; ctr < 4; ctr++) {
+			final DataArray dataArray = gifti.getDataArrays().get(ctr);
+			if ((ctr >= 1) && (ctr < 3)) {
+				checkFloatArray(dataArray, NUM_VALUES, ctr, "accepted data array " + ctr);
+			} else {
+				check(!dataArray.isLoaded(), "rejected data array " + ctr + " loaded");
+			}
+		}
+	}
+
+
+
+	// lazily read data arrays are only converted once loaded
+	private static void testConvertToRowMajorOrder(final boolean lazy) throws Exception {
+		final int numRows = 200;
+		final int numColumns = 3;
+		final File file = new File(GiftiTestUtils.createTempDir(), "columns.gii");
+		final GIFTI gifti = createGifti(1);
+		gifti.addDataArray(createColumnMajorArray(DataArray.ENCODING_GZIPBASE64BINARY, numRows, numColumns));
+		new GiftiWriter(gifti, file).writeGiftiXML();
+
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(lazy);
+		reader.setConvertToRowMajorOrder(true);
+		final DataArray dataArray = reader.parseGiftiXML().getDataArrays().get(0);
+
+		check(dataArray.isLoaded() != lazy, (lazy ? "lazy " : "") + "data array loaded");
+		checkRowMajorArray(dataArray, numRows, numColumns, (lazy ? "lazy " : "") + "converted data array");
+	}
+}
@@ -0,0 +1,87 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.checkFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createGifti;
+
+import java.io.File;
+
+
+public class GiftiStreamWriterTest {
+
+	private static final int NUM_VALUES = 10000;
+	private static final String[] ENCODINGS = { DataArray.ENCODING_ASCII, DataArray.ENCODING_BASE64BINARY,
+			DataArray.ENCODING_GZIPBASE64BINARY };
+
+
+
+	public static void main(final String[] args) throws Exception {
+		testResaveLazilyReadFile(false);
+		testResaveLazilyReadFile(true);
+		testCount();
+	}
+
+
+
+	// re-saving a file through the stream must not destroy the data arrays still being read from it
+	private static void testResaveLazilyReadFile(final boolean keepPayloads) throws Exception {
+		final File dir = GiftiTestUtils.createTempDir();
+		final File file = new File(dir, "resave.gii");
+
+		final GIFTI gifti = createGifti(ENCODINGS.length);
+		for (int ctr = 0; ctr < ENCODINGS.length; ctr++) {
+			gifti.addDataArray(createFloatArray(ENCODINGS[ctr], NUM_VALUES, ctr));
+		}
+		new GiftiWriter(gifti, file).writeGiftiXML();
+
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(!keepPayloads);
+		reader.setKeepPayloads(keepPayloads);
+		final GIFTI source = reader.parseGiftiXML();
+		source.getMetadata().put("Name", "resaved");
+
+		final GiftiStreamWriter writer = new GiftiStreamWriter(source, file);
+		writer.open();
+		for (final DataArray dataArray : source.getDataArrays()) {
+			writer.writeDataArray(dataArray);
+		}
+		writer.close();
+
+		check(!GiftiTestUtils.hasTempFiles(dir), "temporary file left behind");
+
+		final GIFTI resaved = new GiftiReader(file).parseGiftiXML();
+		check("resaved".equals(resaved.getMetadata().get("Name")), "metadata");
+		check(resaved.getNumDataArrays() == ENCODINGS.length, "NumberOfDataArrays");
+		for (int ctr = 0; ctr < ENCODINGS.length; ctr++) {
+			checkFloatArray(resaved.getDataArrays().get(ctr), NUM_VALUES, ctr, "resaved " + ENCODINGS[ctr]);
+
+			// the source data arrays load from their new location in the replaced file
+			final DataArray dataArray = source.getDataArrays().get(ctr);
+			dataArray.unload();
+			checkFloatArray(dataArray, NUM_VALUES, ctr, "source " + ENCODINGS[ctr]);
+		}
+	}
+
+
+
+	private static void testCount() throws Exception {
+		final File dir = GiftiTestUtils.createTempDir();
+		final File file = new File(dir, "frames.gii");
+		final int numFrames = 1234;
+
+		final GiftiStreamWriter writer = new GiftiStreamWriter(createGifti(0), file);
+		writer.open();
+		for (int ctr = 0; ctr < numFrames; ctr++) {
+			writer.writeDataArray(createFloatArray(DataArray.ENCODING_BASE64BINARY, 10, ctr));
+		}
+		writer.close();
+
+		final GIFTI gifti = new GiftiReader(file).parseGiftiXML();
+		check(gifti.getNumDataArrays() == numFrames, "NumberOfDataArrays " + gifti.getNumDataArrays());
+		check(gifti.getDataArrays().size() == numFrames, "data arrays " + gifti.getDataArrays().size());
+		checkFloatArray(gifti.getDataArrays().get(numFrames - 1), 10, numFrames - 1, "last frame");
+		check(!GiftiTestUtils.hasTempFiles(dir), "temporary file left behind");
+	}
+}
@@ -0,0 +1,151 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public class GiftiTestUtils {
+
+	/**
+	 * @param condition
+	 * @param message
+	 */
+	public static void check(final boolean condition, final String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+
+
+	/**
+	 * @return a new, empty directory
+	 * @throws IOException
+	 */
+	public static File createTempDir() throws IOException {
+		final File dir = Files.createTempDirectory("gifti-test").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+
+
+	/**
+	 * @param numDataArrays
+	 * @return a GIFTI object with no data arrays
+	 */
+	public static GIFTI createGifti(final int numDataArrays) {
+		final Map<String, String> atts = new LinkedHashMap<String, String>();
+		atts.put(GIFTI.ATT_VERSION, GIFTI.DEFAULT_VERSION);
+		atts.put(GIFTI.ATT_NUMBEROFDATAARRAYS, String.valueOf(numDataArrays));
+		return new GIFTI(atts);
+	}
+
+
+
+	/**
+	 * Creates a 1-D FLOAT32 data array whose value at index i is seed + i / 4.
+	 *
+	 * @param encoding
+	 * @param numValues
+	 * @param seed
+	 * @return
+	 */
+	public static DataArray createFloatArray(final String encoding, final int numValues, final int seed) {
+		final Map<String, String> atts = new LinkedHashMap<String, String>();
+		atts.put(DataArray.ATT_INTENT, DataArray.NIFTI_INTENT_NONE);
+		atts.put(DataArray.ATT_ARRAYINDEXINGORDER, DataArray.DIM_ORDER_ROWMAJORORDER);
+		atts.put(DataArray.ATT_DATATYPE, DataArray.TYPE_NIFTI_TYPE_FLOAT32);
+		atts.put(DataArray.ATT_DIMENSIONALITY, "1");
+		atts.put(DataArray.ATT_DIMN + "0", String.valueOf(numValues));
+		atts.put(DataArray.ATT_ENCODING, encoding);
+		atts.put(DataArray.ATT_ENDIAN, DataArray.DATA_ORDER_LITTLEENDIAN);
+
+		final SegmentedByteBuffer buffer = SegmentedByteBuffer.allocateDirect(4L * numValues);
+		for (int ctr = 0; ctr < numValues; ctr++) {
+			buffer.putFloat(4L * ctr, seed + (ctr / 4f));
+		}
+
+		return new DataArray(atts, buffer);
+	}
+
+
+
+	/**
+	 * Checks the values of a data array created by createFloatArray().
+	 *
+	 * @param dataArray
+	 * @param numValues
+	 * @param seed
+	 * @param message
+	 */
+	public static void checkFloatArray(final DataArray dataArray, final int numValues, final int seed, final String message) {
+		check(dataArray.getNumValues() == numValues, message + ": " + dataArray.getNumValues() + " values");
+
+		final SegmentedByteBuffer buffer = dataArray.getSegmentedBuffer();
+		for (int ctr = 0; ctr < numValues; ctr++) {
+			check(buffer.getFloat(4L * ctr) == (seed + (ctr / 4f)), message + ": value " + ctr);
+		}
+	}
+
+
+
+	/**
+	 * Creates a 2-D FLOAT32 data array in column-major order, whose value at row i and column j is (i + (j * numRows)) / 4.
+	 *
+	 * @param encoding
+	 * @param numRows
+	 * @param numColumns
+	 * @return
+	 */
+	public static DataArray createColumnMajorArray(final String encoding, final int numRows, final int numColumns) {
+		final DataArray dataArray = createFloatArray(encoding, numRows * numColumns, 0);
+		dataArray.getAttributes().put(DataArray.ATT_ARRAYINDEXINGORDER, DataArray.DIM_ORDER_COLUMNMAJORORDER);
+		dataArray.getAttributes().put(DataArray.ATT_DIMENSIONALITY, "2");
+		dataArray.getAttributes().put(DataArray.ATT_DIMN + "0", String.valueOf(numRows));
+		dataArray.getAttributes().put(DataArray.ATT_DIMN + "1", String.valueOf(numColumns));
+		return dataArray;
+	}
+
+
+
+	/**
+	 * Checks the values of a data array created by createColumnMajorArray() once converted to row-major order.
+	 *
+	 * @param dataArray
+	 * @param numRows
+	 * @param numColumns
+	 * @param message
+	 */
+	public static void checkRowMajorArray(final DataArray dataArray, final int numRows, final int numColumns, final String message) {
+		check(dataArray.isRowMajorOrder(), message + ": row-major order");
+
+		final SegmentedByteBuffer buffer = dataArray.getSegmentedBuffer();
+		for (int row = 0; row < numRows; row++) {
+			for (int column = 0; column < numColumns; column++) {
+				final float value = buffer.getFloat(4L * ((row * numColumns) + column));
+				check(value == ((row + (column * numRows)) / 4f), message + ": value at " + row + ", " + column);
+			}
+		}
+	}
+
+
+
+	/**
+	 * @param dir
+	 * @return true if a temporary file was left in the directory
+	 */
+	public static boolean hasTempFiles(final File dir) {
+		for (final String name : dir.list()) {
+			if (name.endsWith(".tmp")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,73 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+
+import java.nio.ByteOrder;
+
+
+public class GiftiTransposerTest {
+
+	public static void main(final String[] args) throws Exception {
+		testTranspose(1, 1000, 2);
+		testTranspose(130, 70, 8);
+		testTranspose(100, 100, 4);
+		testTranspose(1100, 1000, 4); // split across the pool
+		testTranspose(1024, 1024, 4); // split across the pool, in place
+	}
+
+
+
+	private static void testTranspose(final int numRows, final int numColumns, final int bytesPerUnit) throws Exception {
+		final String message = numRows + "x" + numColumns + " matrix of " + bytesPerUnit + "-byte values";
+		final SegmentedByteBuffer src = SegmentedByteBuffer.allocateDirect((long) numRows * numColumns * bytesPerUnit);
+		src.order(ByteOrder.BIG_ENDIAN);
+
+		for (long ctr = 0; ctr < ((long) numRows * numColumns); ctr++) {
+			putValue(src, ctr * bytesPerUnit, bytesPerUnit, ctr);
+		}
+
+		final SegmentedByteBuffer dst = GiftiTransposer.transpose(src, numRows, numColumns, bytesPerUnit);
+		check((dst == src) == (numRows == numColumns), message + " transposed in place");
+		check(dst.order() == ByteOrder.BIG_ENDIAN, message + " byte order");
+
+		for (int row = 0; row < numRows; row++) {
+			for (int column = 0; column < numColumns; column++) {
+				final long index = ((long) column * numRows) + row;
+				final long expected = ((long) row * numColumns) + column;
+				if (getValue(dst, index * bytesPerUnit, bytesPerUnit) != truncate(expected, bytesPerUnit)) {
+					check(false, message + ": value at " + row + ", " + column);
+				}
+			}
+		}
+	}
+
+
+
+	private static void putValue(final SegmentedByteBuffer buffer, final long index, final int bytesPerUnit, final long value) {
+		if (bytesPerUnit == 2) {
+			buffer.putShort(index, (short) value);
+		} else if (bytesPerUnit == 4) {
+			buffer.putInt(index, (int) value);
+		} else {
+			buffer.putLong(index, value);
+		}
+	}
+
+
+
+	private static long getValue(final SegmentedByteBuffer buffer, final long index, final int bytesPerUnit) {
+		if (bytesPerUnit == 2) {
+			return buffer.getShort(index);
+		} else if (bytesPerUnit == 4) {
+			return buffer.getInt(index);
+		} else {
+			return buffer.getLong(index);
+		}
+	}
+
+
+
+	private static long truncate(final long value, final int bytesPerUnit) {
+		return (bytesPerUnit == 2) ? (short) value : ((bytesPerUnit == 4) ? (int) value : value);
+	}
+}
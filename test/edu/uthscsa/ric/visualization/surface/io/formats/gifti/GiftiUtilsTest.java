@@ -0,0 +1,42 @@
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+
+import java.util.Random;
+import java.util.zip.Adler32;
+
+
+public class GiftiUtilsTest {
+
+	private static final int NUM_BYTES = 200000;
+
+
+
+	public static void main(final String[] args) throws Exception {
+		testCombineAdler32();
+	}
+
+
+
+	// splits before, within and beyond the Adler-32 modulus, and at both ends
+	private static void testCombineAdler32() throws Exception {
+		final byte[] bytes = new byte[NUM_BYTES];
+		new Random(1).nextBytes(bytes);
+		final long expected = adler32(bytes, 0, NUM_BYTES);
+		final int[] splits = { 0, 1, 5552, 65520, 65521, 65522, 131042, NUM_BYTES - 1, NUM_BYTES };
+
+		for (final int split : splits) {
+			final long adler1 = adler32(bytes, 0, split);
+			final long adler2 = adler32(bytes, split, NUM_BYTES - split);
+			check(GiftiUtils.combineAdler32(adler1, adler2, NUM_BYTES - split) == expected, "Adler-32 combined at " + split);
+		}
+	}
+
+
+
+	private static long adler32(final byte[] bytes, final int offset, final int length) {
+		final Adler32 adler = new Adler32();
+		adler.update(bytes, offset, length);
+		return adler.getValue();
+	}
+}
@@ -0,0 +1,115 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+
+public class GiftiWriterDataHandlerTest {
+
+	private static final int NUM_VALUES = 10;
+	private static final int NUM_BULK_VALUES = 1000;
+	private static final int BLOCK_SIZE = 30; // not a whole number of values
+
+
+
+	public static void main(final String[] args) throws Exception {
+		testNextInt();
+		testNextLong();
+		testNextBufferFromSegments(ByteOrder.LITTLE_ENDIAN);
+		testNextBufferFromSegments(ByteOrder.BIG_ENDIAN);
+		testNextBufferFromTypedBuffer(ByteOrder.LITTLE_ENDIAN);
+		testNextBufferFromTypedBuffer(ByteOrder.BIG_ENDIAN);
+	}
+
+
+
+	private static void testNextInt() throws Exception {
+		final GiftiWriterDataHandler it = new GiftiWriterDataHandler(createFloatArray(DataArray.ENCODING_ASCII, NUM_VALUES, 1));
+
+		for (int ctr = 0; ctr < NUM_VALUES; ctr++) {
+			check(it.hasNext(), "value " + ctr + " available");
+			check(Float.intBitsToFloat(it.next()) == (1 + (ctr / 4f)), "float value " + ctr);
+		}
+
+		check(!it.hasNext(), "values exhausted");
+	}
+
+
+
+	private static void testNextLong() throws Exception {
+		final DataArray dataArray = createFloatArray(DataArray.ENCODING_ASCII, NUM_VALUES, 0);
+		dataArray.getAttributes().put(DataArray.ATT_DATATYPE, DataArray.TYPE_NIFTI_TYPE_FLOAT64);
+		dataArray.getAttributes().put(DataArray.ATT_DIMN + "0", String.valueOf(NUM_VALUES / 2));
+		for (int ctr = 0; ctr < (NUM_VALUES / 2); ctr++) {
+			dataArray.getSegmentedBuffer().putDouble(8L * ctr, ctr / 8.0);
+		}
+
+		final GiftiWriterDataHandler it = new GiftiWriterDataHandler(dataArray);
+		check(Double.longBitsToDouble(it.nextLong()) == 0, "double value 0");
+		check(Double.longBitsToDouble(it.nextLong()) == (1 / 8.0), "double value 1");
+
+		try {
+			it.next();
+			check(false, "8-byte value returned as an int");
+		} catch (final IllegalStateException ex) {
+			// expected
+		}
+	}
+
+
+
+	// segments of 64 bytes, so that values are copied across segment boundaries within a block
+	private static void testNextBufferFromSegments(final ByteOrder order) throws Exception {
+		final DataArray source = createFloatArray(DataArray.ENCODING_BASE64BINARY, NUM_BULK_VALUES, 1);
+		final SegmentedByteBuffer segments = SegmentedByteBuffer.allocateDirect(4L * NUM_BULK_VALUES, 64);
+		segments.order(ByteOrder.LITTLE_ENDIAN);
+		for (int ctr = 0; ctr < NUM_BULK_VALUES; ctr++) {
+			segments.putFloat(4L * ctr, source.getSegmentedBuffer().getFloat(4L * ctr));
+		}
+
+		checkNextBuffer(new DataArray(source.getAttributes(), segments), order, "segmented " + order);
+	}
+
+
+
+	// the position of the buffer of the data array must be left alone
+	private static void testNextBufferFromTypedBuffer(final ByteOrder order) throws Exception {
+		final DataArray source = createFloatArray(DataArray.ENCODING_BASE64BINARY, NUM_BULK_VALUES, 1);
+		final FloatBuffer floats = FloatBuffer.allocate(NUM_BULK_VALUES);
+		for (int ctr = 0; ctr < NUM_BULK_VALUES; ctr++) {
+			floats.put(ctr, source.getSegmentedBuffer().getFloat(4L * ctr));
+		}
+
+		checkNextBuffer(new DataArray(source.getAttributes(), floats), order, "typed " + order);
+		check(floats.position() == 0, "typed " + order + " buffer position");
+	}
+
+
+
+	private static void checkNextBuffer(final DataArray dataArray, final ByteOrder order, final String message) {
+		final GiftiWriterDataHandler it = new GiftiWriterDataHandler(dataArray);
+		final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+		block.order(order);
+
+		int numValues = 0;
+		while (it.hasNext()) {
+			block.clear();
+			final int numBytes = it.next(block);
+			check((numBytes > 0) && ((numBytes % 4) == 0) && (block.position() == numBytes), message + " block size");
+
+			for (int offset = 0; offset < numBytes; offset += 4, numValues++) {
+				check(block.getFloat(offset) == (1 + (numValues / 4f)), message + " value " + numValues);
+			}
+		}
+
+		check(numValues == NUM_BULK_VALUES, message + " values copied");
+
+		block.clear();
+		check(it.next(block) == 0, message + " values exhausted");
+	}
+}
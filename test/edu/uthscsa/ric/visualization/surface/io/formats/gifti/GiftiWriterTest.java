@@ -0,0 +1,282 @@
+
+package edu.uthscsa.ric.visualization.surface.io.formats.gifti;
+
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.check;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.checkFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createFloatArray;
+import static edu.uthscsa.ric.visualization.surface.io.formats.gifti.GiftiTestUtils.createGifti;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+public class GiftiWriterTest {
+
+	private static final int NUM_VALUES = 1000;
+	private static final int NUM_DATA_ARRAYS = 4;
+
+
+
+	public static void main(final String[] args) throws Exception {
+		testResaveEscapedPayloads(true);
+		testResaveEscapedPayloads(false);
+		testResaveInPlace();
+		testCopyUntouchedPayload();
+		testEncodeEditedPayload(true);
+		testEncodeEditedPayload(false);
+		testExternalFileBinary();
+		testExternalFileBinaryWithoutData();
+		testParallelDeflate();
+		testBulkEncodeTypedBuffer(DataArray.DATA_ORDER_LITTLEENDIAN);
+		testBulkEncodeTypedBuffer(DataArray.DATA_ORDER_BIGENDIAN);
+	}
+
+
+
+	// writes a file whose Data elements hold a CDATA section, an entity reference and a comment, plus one plain Data element
+	private static File writeEscapedFile() throws Exception {
+		final File file = new File(GiftiTestUtils.createTempDir(), "escaped.gii");
+		final GIFTI gifti = createGifti(NUM_DATA_ARRAYS);
+		for (int ctr = 0; ctr < NUM_DATA_ARRAYS; ctr++) {
+			gifti.addDataArray(createFloatArray(DataArray.ENCODING_ASCII, NUM_VALUES, ctr));
+		}
+		new GiftiWriter(gifti, file).writeGiftiXML();
+
+		final String xml = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		final Matcher matcher = Pattern.compile("<Data>(.*?)</Data>", Pattern.DOTALL).matcher(xml);
+		final StringBuffer escaped = new StringBuffer();
+
+		for (int ctr = 0; matcher.find(); ctr++) {
+			final String data = matcher.group(1);
+			final int space = data.indexOf(' ');
+
+			if (ctr == 0) {
+				matcher.appendReplacement(escaped, Matcher.quoteReplacement("<Data><![CDATA[" + data + "]]></Data>"));
+			} else if (ctr == 1) {
+				matcher.appendReplacement(escaped, Matcher.quoteReplacement("<Data>" + data.substring(0, space) + "&#32;"
+						+ data.substring(space + 1) + "</Data>"));
+			} else if (ctr == 2) {
+				matcher.appendReplacement(escaped, Matcher.quoteReplacement("<Data>" + data.substring(0, space) + "<!-- a -->"
+						+ data.substring(space) + "</Data>"));
+			}
+		}
+
+		matcher.appendTail(escaped);
+		Files.write(file.toPath(), escaped.toString().getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+
+
+	// encoded data that is escaped, wrapped in CDATA or interrupted by comments is resolved when it is copied or loaded lazily
+	private static void testResaveEscapedPayloads(final boolean lazy) throws Exception {
+		final File file = writeEscapedFile();
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(lazy);
+		reader.setKeepPayloads(!lazy);
+		final GIFTI source = reader.parseGiftiXML();
+
+		// copied before the source buffers are accessed, which would mark them dirty
+		final File resavedFile = new File(file.getParentFile(), "resaved.gii");
+		new GiftiWriter(source, resavedFile).writeGiftiXML();
+
+		final String mode = lazy ? "lazy " : "";
+		final String xml = new String(Files.readAllBytes(resavedFile.toPath()), StandardCharsets.UTF_8);
+		final Matcher matcher = Pattern.compile("<Data>(.*?)</Data>", Pattern.DOTALL).matcher(xml);
+		while (matcher.find()) {
+			check(matcher.group(1).matches("[\\s0-9.]*"), mode + "markup copied into resaved data");
+		}
+
+		final GIFTI resaved = new GiftiReader(resavedFile).parseGiftiXML();
+		for (int ctr = 0; ctr < NUM_DATA_ARRAYS; ctr++) {
+			checkFloatArray(source.getDataArrays().get(ctr), NUM_VALUES, ctr, mode + "escaped data array " + ctr);
+			checkFloatArray(resaved.getDataArrays().get(ctr), NUM_VALUES, ctr, mode + "resaved data array " + ctr);
+		}
+	}
+
+
+
+	// the payloads recorded while writing must match those found by reading the replaced file
+	private static void testResaveInPlace() throws Exception {
+		final File file = writeEscapedFile();
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(true);
+		final GIFTI source = reader.parseGiftiXML();
+
+		// moves every Data element, and splits the markup within them across reads
+		source.getMetadata().put("Description", "resaved in place");
+		final GiftiWriter writer = new GiftiWriter(source, file);
+		writer.setBufferSize(GiftiWriter.MIN_BUFFER_SIZE);
+		writer.writeGiftiXML();
+
+		final GiftiReader resavedReader = new GiftiReader(file);
+		resavedReader.setLazy(true);
+		final GIFTI resaved = resavedReader.parseGiftiXML();
+
+		for (int ctr = 0; ctr < NUM_DATA_ARRAYS; ctr++) {
+			final GiftiPayload written = source.getDataArrays().get(ctr).getPayload();
+			final GiftiPayload read = resaved.getDataArrays().get(ctr).getPayload();
+			check((written.getOffset() == read.getOffset()) && (written.getLength() == read.getLength()), "written payload " + ctr);
+			checkFloatArray(source.getDataArrays().get(ctr), NUM_VALUES, ctr, "data array " + ctr + " resaved in place");
+		}
+	}
+
+
+
+	// writes external data in each byte order, then maps it back in
+	private static void testExternalFileBinary() throws Exception {
+		final File file = new File(GiftiTestUtils.createTempDir(), "external.gii");
+		final String[] byteOrders = { DataArray.DATA_ORDER_LITTLEENDIAN, DataArray.DATA_ORDER_BIGENDIAN };
+		final GIFTI gifti = createGifti(byteOrders.length);
+		for (int ctr = 0; ctr < byteOrders.length; ctr++) {
+			final DataArray dataArray = createFloatArray(DataArray.ENCODING_EXTERNALFILEBINARY, NUM_VALUES, ctr);
+			dataArray.getAttributes().put(DataArray.ATT_ENDIAN, byteOrders[ctr]);
+			gifti.addDataArray(dataArray);
+		}
+		new GiftiWriter(gifti, file).writeGiftiXML();
+
+		final File externalFile = new File(file.getParentFile(), "external.dat");
+		check(externalFile.length() == (byteOrders.length * NUM_VALUES * 4L), "external file size");
+
+		final GIFTI read = new GiftiReader(file).parseGiftiXML();
+		for (int ctr = 0; ctr < byteOrders.length; ctr++) {
+			final DataArray dataArray = read.getDataArrays().get(ctr);
+			check(dataArray.getExternalFileOffsetLong() == (ctr * NUM_VALUES * 4L), byteOrders[ctr] + " external offset");
+			checkFloatArray(dataArray, NUM_VALUES, ctr, byteOrders[ctr] + " external data array");
+		}
+	}
+
+
+
+	// a data array without data must not leave an external file that does not match its Dims
+	private static void testExternalFileBinaryWithoutData() throws Exception {
+		final File file = new File(GiftiTestUtils.createTempDir(), "empty.gii");
+		final DataArray source = createFloatArray(DataArray.ENCODING_EXTERNALFILEBINARY, NUM_VALUES, 0);
+		final GIFTI gifti = createGifti(1);
+		gifti.addDataArray(new DataArray(source.getAttributes(), true));
+
+		try {
+			new GiftiWriter(gifti, file).writeGiftiXML();
+			check(false, "external data array without data written");
+		} catch (final GiftiFormatException ex) {
+			// expected
+		}
+
+		check(!new File(file.getParentFile(), "empty.dat").exists(), "external file written for a data array without data");
+		check(!GiftiTestUtils.hasTempFiles(file.getParentFile()), "temporary external file left behind");
+	}
+
+
+
+	private static File writeWrappedFile() throws Exception {
+		final File file = new File(GiftiTestUtils.createTempDir(), "wrapped.gii");
+		final GIFTI gifti = createGifti(1);
+		gifti.addDataArray(createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, NUM_VALUES, 0));
+		new GiftiWriter(gifti, file, true).writeGiftiXML();
+		return file;
+	}
+
+
+
+	private static String readPayload(final File file) throws Exception {
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(true);
+		final GiftiPayload payload = reader.parseGiftiXML().getDataArrays().get(0).getPayload();
+		final byte[] bytes = new byte[(int) payload.getLength()];
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(payload.getOffset());
+			raf.readFully(bytes);
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+
+	// the line breaks of the source survive only if its encoded data is copied as is
+	private static void testCopyUntouchedPayload() throws Exception {
+		final File file = writeWrappedFile();
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setKeepPayloads(true);
+		final GIFTI source = reader.parseGiftiXML();
+
+		final File resavedFile = new File(file.getParentFile(), "resaved.gii");
+		new GiftiWriter(source, resavedFile).writeGiftiXML();
+
+		check(!source.getDataArrays().get(0).isDirty(), "untouched data array dirty");
+		check(readPayload(resavedFile).equals(readPayload(file)), "untouched payload copied");
+	}
+
+
+
+	// values changed through a buffer, without calling setDirty(), must not be lost to a copy of the old encoded data
+	private static void testEncodeEditedPayload(final boolean lazy) throws Exception {
+		final File file = writeWrappedFile();
+		final GiftiReader reader = new GiftiReader(file);
+		reader.setLazy(lazy);
+		reader.setKeepPayloads(!lazy);
+		final GIFTI source = reader.parseGiftiXML();
+
+		final DataArray dataArray = source.getDataArrays().get(0);
+		dataArray.getAsFloatBuffer().put(0, -1);
+		check(dataArray.isDirty(), "edited data array dirty");
+
+		final File resavedFile = new File(file.getParentFile(), "resaved.gii");
+		new GiftiWriter(source, resavedFile).writeGiftiXML();
+
+		final GIFTI resaved = new GiftiReader(resavedFile).parseGiftiXML();
+		check(resaved.getDataArrays().get(0).getAsFloatBuffer().get(0) == -1, (lazy ? "lazy " : "") + "edited value written");
+	}
+
+
+
+	// more than one block, ending with a partial block, so the checksums of several blocks are combined
+	private static void testParallelDeflate() throws Exception {
+		final int numValues = (int) ((GiftiWriter.PARALLEL_DEFLATE_THRESHOLD + (GiftiWriter.PARALLEL_BLOCK_SIZE / 2)) / 4);
+		final File file = new File(GiftiTestUtils.createTempDir(), "parallel.gii");
+		final GIFTI gifti = createGifti(1);
+		gifti.addDataArray(createFloatArray(DataArray.ENCODING_GZIPBASE64BINARY, numValues, 0));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final GiftiWriter writer = new GiftiWriter(gifti, file);
+			writer.setExecutor(executor);
+			writer.writeGiftiXML();
+		} finally {
+			executor.shutdown();
+		}
+
+		final GIFTI read = new GiftiReader(file).parseGiftiXML();
+		checkFloatArray(read.getDataArrays().get(0), numValues, 0, "data array deflated in parallel");
+	}
+
+
+
+	// values held in a typed buffer are serialized in the byte order of the file
+	private static void testBulkEncodeTypedBuffer(final String byteOrder) throws Exception {
+		final DataArray source = createFloatArray(DataArray.ENCODING_BASE64BINARY, NUM_VALUES, 0);
+		final FloatBuffer floats = FloatBuffer.allocate(NUM_VALUES);
+		for (int ctr = 0; ctr < NUM_VALUES; ctr++) {
+			floats.put(ctr, source.getSegmentedBuffer().getFloat(4L * ctr));
+		}
+
+		source.getAttributes().put(DataArray.ATT_ENDIAN, byteOrder);
+		final File file = new File(GiftiTestUtils.createTempDir(), "typed.gii");
+		final GIFTI gifti = createGifti(1);
+		gifti.addDataArray(new DataArray(source.getAttributes(), floats));
+
+		final GiftiWriter writer = new GiftiWriter(gifti, file);
+		writer.setBufferSize(GiftiWriter.MIN_BUFFER_SIZE + 2); // not a whole number of values
+		writer.writeGiftiXML();
+
+		checkFloatArray(new GiftiReader(file).parseGiftiXML().getDataArrays().get(0), NUM_VALUES, 0, byteOrder + " typed data array");
+	}
+}